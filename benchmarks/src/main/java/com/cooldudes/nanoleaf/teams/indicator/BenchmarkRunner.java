@@ -0,0 +1,26 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the gc profiler attached so allocation per event is
+ * reported alongside latency.
+ */
+public class BenchmarkRunner {
+
+    /**
+     * @param args regular JMH command-line options
+     * @throws Exception if the options are invalid or the run fails
+     */
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
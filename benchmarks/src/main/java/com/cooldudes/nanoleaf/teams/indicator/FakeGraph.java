@@ -0,0 +1,238 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+import com.nimbusds.oauth2.sdk.util.JSONUtils;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import net.minidev.json.JSONArray;
+import net.minidev.json.JSONObject;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stand-in for the parts of Microsoft Graph the app calls: creating, listing,
+ * renewing and deleting subscriptions, {@code $batch}, and reading presence in
+ * bulk. Any bearer token is accepted. A share of requests inside a batch can
+ * be throttled with a 429 to exercise the retry path.
+ * <p>
+ * The app talks to it once started with {@code -Dgraph.baseUrl=<baseUrl>}.
+ */
+public class FakeGraph implements AutoCloseable {
+
+    private record Reply(int status, JSONObject body) {
+    }
+
+    private final HttpServer server;
+    private final Map<String, JSONObject> subscriptions = new ConcurrentHashMap<>();
+    private final Map<String, JSONObject> presences = new ConcurrentHashMap<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private volatile Duration latency = Duration.ZERO;
+    private volatile double throttleRate;
+
+    /**
+     * Starts the API on a free port.
+     *
+     * @throws IOException if the server cannot be started
+     */
+    public FakeGraph() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/v1.0/", this::handle);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+    }
+
+    /**
+     * @return the URL to use as {@code graph.baseUrl}
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/v1.0";
+    }
+
+    /**
+     * @param latency time to wait before answering each HTTP request
+     */
+    public void setLatency(Duration latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * @param throttleRate share of batched requests, from 0 to 1, answered with a 429
+     */
+    public void setThrottleRate(double throttleRate) {
+        this.throttleRate = throttleRate;
+    }
+
+    /**
+     * Sets the presence {@code getPresencesByUserId} reports for a user.
+     *
+     * @param userId       object id of the user
+     * @param availability the user's availability
+     * @param activity     the user's activity
+     */
+    public void setPresence(String userId, String availability, String activity) {
+        JSONObject presence = new JSONObject();
+        presence.put("id", userId);
+        presence.put("availability", availability);
+        presence.put("activity", activity);
+        presences.put(userId, presence);
+    }
+
+    /**
+     * @return the subscriptions that currently exist
+     */
+    public int getSubscriptionCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * @return individual requests served so far, counting each one inside a batch
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return {@code $batch} calls served so far
+     */
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * @return batched requests answered with a 429 so far
+     */
+    public long getThrottled() {
+        return throttled.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!latency.isZero()) {
+                Thread.sleep(latency);
+            }
+            String path = exchange.getRequestURI().getPath().substring("/v1.0".length());
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            Reply reply;
+            if (path.equals("/$batch") && exchange.getRequestMethod().equals("POST")) {
+                reply = batch(body);
+            } else {
+                reply = dispatch(exchange.getRequestMethod(), path, body.isEmpty() ? null : parse(body));
+            }
+            byte[] bytes = reply.body() == null ? new byte[0] : reply.body().toJSONString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(reply.status(), bytes.length == 0 ? -1 : bytes.length);
+            if (bytes.length > 0) {
+                exchange.getResponseBody().write(bytes);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            exchange.sendResponseHeaders(400, -1);
+        }
+    }
+
+    private Reply batch(String body) throws Exception {
+        batches.incrementAndGet();
+        JSONArray responses = new JSONArray();
+        for (Object item : (JSONArray) parse(body).get("requests")) {
+            JSONObject request = (JSONObject) item;
+            JSONObject response = new JSONObject();
+            response.put("id", request.getAsString("id"));
+            if (throttleRate > 0 && ThreadLocalRandom.current().nextDouble() < throttleRate) {
+                throttled.incrementAndGet();
+                response.put("status", 429);
+                response.put("headers", new JSONObject(Map.of("Retry-After", "0")));
+            } else {
+                Object requestBody = request.get("body");
+                Reply reply = dispatch(request.getAsString("method"), request.getAsString("url"),
+                        requestBody instanceof JSONObject json ? json : null);
+                response.put("status", reply.status());
+                if (reply.body() != null) {
+                    response.put("body", reply.body());
+                }
+            }
+            responses.add(response);
+        }
+        JSONObject result = new JSONObject();
+        result.put("responses", responses);
+        return new Reply(200, result);
+    }
+
+    private Reply dispatch(String method, String path, JSONObject body) {
+        requests.incrementAndGet();
+        if (path.equals("/subscriptions")) {
+            if (method.equals("GET")) {
+                JSONArray value = new JSONArray();
+                value.addAll(subscriptions.values());
+                JSONObject list = new JSONObject();
+                list.put("value", value);
+                return new Reply(200, list);
+            }
+            if (method.equals("POST") && body != null) {
+                JSONObject subscription = new JSONObject(body);
+                subscription.remove("encryptionCertificate");
+                subscription.put("id", UUID.randomUUID().toString());
+                subscription.put("expirationDateTime", ZonedDateTime.now(ZoneOffset.UTC).plusHours(1).toString());
+                subscriptions.put(subscription.getAsString("id"), subscription);
+                return new Reply(201, subscription);
+            }
+        } else if (path.startsWith("/subscriptions/")) {
+            String id = path.substring("/subscriptions/".length());
+            JSONObject subscription = subscriptions.get(id);
+            if (subscription == null) {
+                return new Reply(404, error("ResourceNotFound", "No subscription " + id));
+            }
+            if (method.equals("PATCH") && body != null) {
+                subscription.put("expirationDateTime", body.getAsString("expirationDateTime"));
+                return new Reply(200, subscription);
+            }
+            if (method.equals("DELETE")) {
+                subscriptions.remove(id);
+                return new Reply(204, null);
+            }
+        } else if (path.equals("/communications/getPresencesByUserId") && method.equals("POST") && body != null) {
+            JSONArray value = new JSONArray();
+            for (Object id : (JSONArray) body.get("ids")) {
+                JSONObject presence = presences.get(id.toString());
+                if (presence != null) {
+                    value.add(presence);
+                }
+            }
+            JSONObject result = new JSONObject();
+            result.put("value", value);
+            return new Reply(200, result);
+        }
+        return new Reply(405, error("BadRequest", method + " " + path + " is not simulated"));
+    }
+
+    private static JSONObject parse(String json) throws Exception {
+        return (JSONObject) JSONUtils.parseJSON(json);
+    }
+
+    private static JSONObject error(String code, String message) {
+        JSONObject error = new JSONObject();
+        error.put("code", code);
+        error.put("message", message);
+        JSONObject body = new JSONObject();
+        body.put("error", error);
+        return body;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
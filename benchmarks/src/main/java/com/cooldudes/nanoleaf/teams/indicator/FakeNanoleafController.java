@@ -0,0 +1,193 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stand-in for a Nanoleaf controller on the loopback interface. Serves
+ * {@code /api/v1/<token>/state} and {@code /api/v1/<token>/effects}, waits a
+ * configurable time before answering, and can drop a share of requests
+ * without a response so the client sees the same I/O errors as with a
+ * controller that went away.
+ * <p>
+ * The app talks to it once started with {@code -Dnanoleaf.port=<port>} and a
+ * device at 127.0.0.1 with this controller's token.
+ */
+public class FakeNanoleafController implements AutoCloseable {
+
+    private final HttpServer server;
+    private final String token;
+    private final AtomicLong effectWrites = new AtomicLong();
+    private final AtomicLong stateWrites = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final CompletableFuture<Long> firstEffect = new CompletableFuture<>();
+    private volatile Duration latency = Duration.ZERO;
+    private volatile double failureRate;
+    private volatile boolean on = true;
+    private volatile String lastEffect;
+
+    /**
+     * Starts the controller on a free port.
+     *
+     * @param token the auth token the API is served under
+     * @throws IOException if the server cannot be started
+     */
+    public FakeNanoleafController(String token) throws IOException {
+        this.token = token;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/api/v1/" + token + "/state", this::handleState);
+        server.createContext("/api/v1/" + token + "/effects", this::handleEffects);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+    }
+
+    /**
+     * @return the port the API is served on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return the auth token the API is served under
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * @param latency time to wait before answering each request
+     */
+    public void setLatency(Duration latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * @param failureRate share of requests, from 0 to 1, dropped without a response
+     */
+    public void setFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+    }
+
+    /**
+     * @return effects written so far
+     */
+    public long getEffectWrites() {
+        return effectWrites.get();
+    }
+
+    /**
+     * @return state changes written so far
+     */
+    public long getStateWrites() {
+        return stateWrites.get();
+    }
+
+    /**
+     * @return requests dropped so far
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the body of the last effect written, or null if none was
+     */
+    public String getLastEffect() {
+        return lastEffect;
+    }
+
+    /**
+     * @return a future completed with the {@link System#nanoTime()} at which
+     *         the first effect was written
+     */
+    public CompletableFuture<Long> firstEffect() {
+        return firstEffect;
+    }
+
+    private void handleState(HttpExchange exchange) throws IOException {
+        if (!simulate(exchange)) {
+            return;
+        }
+        if (exchange.getRequestMethod().equals("PUT")) {
+            String body = readBody(exchange);
+            if (body.contains("\"on\"")) {
+                on = body.contains("true");
+            }
+            stateWrites.incrementAndGet();
+            respond(exchange, 204, null);
+        } else {
+            // GET /state or /state/on; both answer with the power state the app looks for
+            respond(exchange, 200, "{\"value\":" + on + "}");
+        }
+    }
+
+    private void handleEffects(HttpExchange exchange) throws IOException {
+        if (!simulate(exchange)) {
+            return;
+        }
+        if (exchange.getRequestMethod().equals("PUT")) {
+            lastEffect = readBody(exchange);
+            on = true;
+            effectWrites.incrementAndGet();
+            firstEffect.complete(System.nanoTime());
+            respond(exchange, 204, null);
+        } else {
+            respond(exchange, 200, "[\"Teams\"]");
+        }
+    }
+
+    /**
+     * Applies the configured latency and failures.
+     *
+     * @return false if the request was dropped
+     */
+    private boolean simulate(HttpExchange exchange) {
+        if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+            dropped.incrementAndGet();
+            // Closing without a response makes the client fail with an IOException
+            exchange.close();
+            return false;
+        }
+        if (!latency.isZero()) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                exchange.close();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        return new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+        } else {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, bytes.length);
+            exchange.getResponseBody().write(bytes);
+        }
+        exchange.close();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
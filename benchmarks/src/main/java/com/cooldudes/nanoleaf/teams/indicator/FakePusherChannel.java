@@ -0,0 +1,101 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Stand-in for the Pusher relay. Events are triggered in process instead of
+ * arriving over a websocket, and are routed exactly as {@link SocketConnection}
+ * routes them: {@code status-update} into the channel's {@link EventPipeline},
+ * {@code reauth-required} to the route's reauthorization. The connection can
+ * be dropped and restored to exercise the polling fallback.
+ */
+public class FakePusherChannel implements NotificationSource {
+
+    private final Map<String, SocketConnection.Route> routes = new LinkedHashMap<>();
+    private final Map<String, EventPipeline> pipelines = new LinkedHashMap<>();
+    private final List<Runnable> connectionListeners = new CopyOnWriteArrayList<>();
+    private volatile boolean connected = true;
+
+    /**
+     * @param routes       the channels to deliver events on
+     * @param settleWindow minimum time between two handler calls per channel
+     */
+    public FakePusherChannel(List<SocketConnection.Route> routes, Duration settleWindow) {
+        for (SocketConnection.Route route : routes) {
+            this.routes.put(route.clientState(), route);
+            pipelines.put(route.clientState(), EventPipeline.start(route.handler(), settleWindow));
+        }
+    }
+
+    /**
+     * Delivers an event on a channel, as Pusher would.
+     *
+     * @param clientState client state naming the channel
+     * @param eventName   {@code status-update} or {@code reauth-required}
+     * @param data        the event payload
+     * @return false if the event was not delivered because the connection is down
+     */
+    public boolean trigger(String clientState, String eventName, String data) {
+        if (!connected) {
+            return false;
+        }
+        SocketConnection.Route route = routes.get(clientState);
+        if (route == null) {
+            throw new IllegalArgumentException("No channel for client state " + clientState);
+        }
+        switch (eventName) {
+            case "status-update" -> pipelines.get(clientState).submit(data);
+            case "reauth-required" -> route.reauthorize().get();
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Drops or restores the connection and tells the connection listeners.
+     *
+     * @param connected whether events are delivered
+     */
+    public void setConnected(boolean connected) {
+        this.connected = connected;
+        connectionListeners.forEach(Runnable::run);
+    }
+
+    /**
+     * @return whether every channel has handled all events triggered so far
+     */
+    public boolean isIdle() {
+        return pipelines.values().stream().allMatch(EventPipeline::isIdle);
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public void onConnectionChange(Runnable listener) {
+        connectionListeners.add(listener);
+    }
+
+    @Override
+    public StatusChangeHandler publisher(String clientState) {
+        EventPipeline pipeline = pipelines.get(clientState);
+        if (pipeline == null) {
+            throw new IllegalArgumentException("No channel for client state " + clientState);
+        }
+        return pipeline::publish;
+    }
+
+    @Override
+    public void disconnect() {
+        connected = false;
+        pipelines.values().forEach(EventPipeline::close);
+    }
+}
@@ -0,0 +1,165 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives presence changes end to end through the app against the local
+ * stand-ins: encrypted events go through a {@link FakePusherChannel} into the
+ * real pipelines and devices, which write to a {@link FakeNanoleafController};
+ * the subscriptions are created in a {@link FakeGraph} first. Prints p50/p99
+ * latency from event receipt until the controller acknowledged the write, and
+ * writes per second, as one line that is easy to track between runs.
+ * <p>
+ * Build the benchmarks as described in the pom, then run:
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar \
+ *      com.cooldudes.nanoleaf.teams.indicator.LoadHarness events=5000 rate=1000 users=4 latency=2 failures=0
+ * </pre>
+ * Options, all optional: {@code events} to send, {@code rate} in events per
+ * second (0 for no pacing), {@code users} each with their own channel and
+ * device, controller {@code latency} in milliseconds, controller
+ * {@code failures} and Graph {@code throttle} as shares from 0 to 1, and the
+ * pipeline {@code settle} window in milliseconds.
+ */
+public class LoadHarness {
+
+    private static final String DEVICE_TOKEN = "simulated";
+    private static final String[][] STATES = {
+            {"Busy", "InACall"}, {"Available", "Available"}, {"Away", "Away"}, {"DoNotDisturb", "Presenting"}
+    };
+    private static final Duration IDLE_POLL = Duration.ofMillis(5);
+    private static final Duration IDLE_TIMEOUT = Duration.ofMinutes(2);
+
+    /**
+     * @param args options as {@code name=value} pairs
+     * @throws Exception if a stand-in cannot be started or the run fails
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] pair = arg.split("=", 2);
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Expected name=value: " + arg);
+            }
+            options.put(pair[0], pair[1]);
+        }
+        int events = Integer.parseInt(options.getOrDefault("events", "5000"));
+        double rate = Double.parseDouble(options.getOrDefault("rate", "1000"));
+        int users = Integer.parseInt(options.getOrDefault("users", "4"));
+        Duration latency = Duration.ofMillis(Long.parseLong(options.getOrDefault("latency", "2")));
+        double failures = Double.parseDouble(options.getOrDefault("failures", "0"));
+        double throttle = Double.parseDouble(options.getOrDefault("throttle", "0"));
+        Duration settle = Duration.ofMillis(Long.parseLong(options.getOrDefault("settle", "0")));
+
+        try (FakeNanoleafController controller = new FakeNanoleafController(DEVICE_TOKEN);
+             FakeGraph graph = new FakeGraph()) {
+            controller.setLatency(latency);
+            controller.setFailureRate(failures);
+            graph.setThrottleRate(throttle);
+            // Must be set before the app classes that read them are first used
+            System.setProperty("nanoleaf.port", Integer.toString(controller.getPort()));
+            System.setProperty("graph.baseUrl", graph.getBaseUrl());
+
+            createSubscriptions(graph, users);
+
+            NotificationFixtures fixtures = new NotificationFixtures();
+            List<Long> latencies = new ArrayList<>();
+            List<SocketConnection.Route> routes = new ArrayList<>();
+            for (int u = 0; u < users; u++) {
+                NanoleafShapes device = new NanoleafShapes("127.0.0.1", DEVICE_TOKEN, null, null);
+                StatusChangeHandler measured = presence -> {
+                    device.handleStatusChange(presence);
+                    if (presence.trace != null) {
+                        long nanos = System.nanoTime() - presence.trace.receivedNanos;
+                        synchronized (latencies) {
+                            latencies.add(nanos);
+                        }
+                    }
+                };
+                routes.add(new SocketConnection.Route(clientState(u), measured,
+                        () -> CompletableFuture.completedFuture(null), () -> CompletableFuture.completedFuture(null)));
+            }
+
+            // Encrypt up front so the timed run measures the app, not the fixtures
+            String[] payloads = new String[events];
+            for (int i = 0; i < events; i++) {
+                String[] state = STATES[(i / users) % STATES.length];
+                // Graph version stamps order as strings, so they are padded to one width
+                payloads[i] = fixtures.statusUpdate(userId(i % users), state[0], state[1], String.format("%010d", i));
+            }
+
+            FakePusherChannel channel = new FakePusherChannel(routes, settle);
+            long start = System.nanoTime();
+            for (int i = 0; i < events; i++) {
+                if (rate > 0) {
+                    long wait = start + (long) (i * 1e9 / rate) - System.nanoTime();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                }
+                channel.trigger(clientState(i % users), "status-update", payloads[i]);
+            }
+            long deadline = System.nanoTime() + IDLE_TIMEOUT.toNanos();
+            while (!channel.isIdle() && System.nanoTime() < deadline) {
+                Thread.sleep(IDLE_POLL);
+            }
+            Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+            channel.disconnect();
+
+            long[] sorted;
+            synchronized (latencies) {
+                sorted = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+            }
+            long writes = controller.getEffectWrites() + controller.getStateWrites();
+            System.out.printf("events=%d handled=%d writes=%d dropped=%d elapsed_ms=%d writes_per_s=%.1f "
+                            + "p50_ms=%.3f p99_ms=%.3f graph_requests=%d graph_batches=%d graph_throttled=%d%n",
+                    events, sorted.length, writes, controller.getDropped(), elapsed.toMillis(),
+                    writes * 1e9 / Math.max(elapsed.toNanos(), 1),
+                    EventReplayer.percentile(sorted, 0.50).toNanos() / 1e6,
+                    EventReplayer.percentile(sorted, 0.99).toNanos() / 1e6,
+                    graph.getRequests(), graph.getBatches(), graph.getThrottled());
+        }
+        // Device and pipeline threads outlive the run
+        System.exit(0);
+    }
+
+    /**
+     * Creates one subscription per user through the same batching client the
+     * app uses, so the run starts the way the app does.
+     */
+    private static void createSubscriptions(FakeGraph graph, int users) {
+        GraphBatcher batcher = new GraphBatcher(new TokenManager(null, Set.of()), Duration.ofMillis(20));
+        List<CompletableFuture<GraphBatcher.Response>> created = new ArrayList<>();
+        for (int u = 0; u < users; u++) {
+            Map<String, Object> body = new HashMap<>();
+            body.put("changeType", "updated");
+            body.put("resource", "/communications/presences/" + userId(u));
+            body.put("includeResourceData", true);
+            body.put("clientState", clientState(u));
+            created.add(batcher.submit(new GraphBatcher.Request("POST", "/subscriptions", body)));
+        }
+        for (CompletableFuture<GraphBatcher.Response> response : created) {
+            if (response.join().status() >= 300) {
+                throw new IllegalStateException("Subscription failed: " + response.join().body());
+            }
+        }
+        if (graph.getSubscriptionCount() != users) {
+            throw new IllegalStateException("Expected " + users + " subscriptions, found " + graph.getSubscriptionCount());
+        }
+    }
+
+    private static String userId(int user) {
+        return "user-" + user;
+    }
+
+    private static String clientState(int user) {
+        return "sim-" + user;
+    }
+}
@@ -0,0 +1,91 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * Builds encrypted notifications the same way Graph does, using a throwaway
+ * key pair, so the hot path can be exercised without a real keystore.
+ */
+public class NotificationFixtures {
+    public static final String CERTIFICATE_ID = "nano";
+
+    private final PublicKey publicKey;
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * Generates a fresh RSA key pair and installs its private half as the
+     * shared {@link DecryptionKeys}.
+     *
+     * @throws Exception if the key pair cannot be generated
+     */
+    public NotificationFixtures() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair keyPair = generator.generateKeyPair();
+        this.publicKey = keyPair.getPublic();
+        DecryptionKeys.install(new DecryptionKeys(Map.of(CERTIFICATE_ID, keyPair.getPrivate())));
+    }
+
+    /**
+     * Builds the JSON payload of a {@code status-update} event.
+     *
+     * @param availability presence availability to encrypt
+     * @param activity     presence activity to encrypt
+     * @return the event payload as received from Pusher
+     * @throws Exception if encryption fails
+     */
+    public String statusUpdate(String availability, String activity) throws Exception {
+        return encrypt(String.format("{\"availability\":\"%s\",\"activity\":\"%s\"}", availability, activity));
+    }
+
+    /**
+     * Builds the JSON payload of a {@code status-update} event for one user,
+     * stamped with Graph's presence version.
+     *
+     * @param userId         object id of the user
+     * @param availability   presence availability to encrypt
+     * @param activity       presence activity to encrypt
+     * @param sequenceNumber presence version stamp
+     * @return the event payload as received from Pusher
+     * @throws Exception if encryption fails
+     */
+    public String statusUpdate(String userId, String availability, String activity, String sequenceNumber)
+            throws Exception {
+        return encrypt(String.format("{\"id\":\"%s\",\"availability\":\"%s\",\"activity\":\"%s\",\"sequenceNumber\":\"%s\"}",
+                userId, availability, activity, sequenceNumber));
+    }
+
+    private String encrypt(String resource) throws Exception {
+        byte[] symmetricKey = new byte[32];
+        random.nextBytes(symmetricKey);
+
+        Cipher rsa = Cipher.getInstance(DecryptionKeys.RSA_TRANSFORMATION);
+        rsa.init(Cipher.ENCRYPT_MODE, publicKey);
+        byte[] dataKey = rsa.doFinal(symmetricKey);
+
+        Cipher aes = Cipher.getInstance(DecryptionKeys.AES_TRANSFORMATION);
+        aes.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(symmetricKey, "AES"), new IvParameterSpec(symmetricKey, 0, 16));
+        byte[] data = aes.doFinal(resource.getBytes(StandardCharsets.UTF_8));
+
+        Mac mac = Mac.getInstance(DecryptionKeys.HMAC_ALGORITHM);
+        mac.init(new SecretKeySpec(symmetricKey, DecryptionKeys.HMAC_ALGORITHM));
+        byte[] signature = mac.doFinal(data);
+
+        Base64.Encoder encoder = Base64.getEncoder();
+        return "{\"data\":\"" + encoder.encodeToString(data) + "\"," +
+                "\"dataSignature\":\"" + encoder.encodeToString(signature) + "\"," +
+                "\"dataKey\":\"" + encoder.encodeToString(dataKey) + "\"," +
+                "\"encryptionCertificateId\":\"" + CERTIFICATE_ID + "\"," +
+                "\"encryptionCertificateThumbprint\":\"00\"}";
+    }
+}
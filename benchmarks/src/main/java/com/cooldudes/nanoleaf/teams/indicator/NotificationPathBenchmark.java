@@ -0,0 +1,63 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures each step a single {@code status-update} event goes through before
+ * it reaches the device.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NotificationPathBenchmark {
+
+    private String eventPayload;
+    private EncryptedData encryptedData;
+    private Presence presence;
+    private NanoleafEffect effect;
+
+    @Setup
+    public void setUp() throws Exception {
+        NotificationFixtures fixtures = new NotificationFixtures();
+        eventPayload = fixtures.statusUpdate("Busy", "InACall");
+        encryptedData = SocketConnection.parseEnvelope(eventPayload);
+        presence = new Presence("Busy", "InACall");
+        effect = new NanoleafEffect(NanoleafShapes.getPaletteColors(presence));
+    }
+
+    @Benchmark
+    public EncryptedData parseEnvelope() throws Exception {
+        return SocketConnection.parseEnvelope(eventPayload);
+    }
+
+    @Benchmark
+    public Presence decryptData() throws Exception {
+        return encryptedData.decryptData();
+    }
+
+    @Benchmark
+    public NanoleafEffect.PaletteColor[] getPaletteColors() {
+        return NanoleafShapes.getPaletteColors(presence);
+    }
+
+    @Benchmark
+    public String serializeEffect() {
+        return effect.toString();
+    }
+
+    @Benchmark
+    public byte[] cachedEffectPayload() {
+        return EffectPayloadCache.payloadFor(NanoleafShapes.getPaletteColors(presence));
+    }
+
+    @Benchmark
+    public String endToEnd() throws Exception {
+        Presence decrypted = SocketConnection.parseEnvelope(eventPayload).decryptData();
+        return new NanoleafEffect(NanoleafShapes.getPaletteColors(decrypted)).toString();
+    }
+}
@@ -0,0 +1,170 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Compares the JVM and native builds of the app by time to first effect and
+ * resident memory. Each run starts the app as a new process replaying a
+ * recorded event log onto a {@link FakeNanoleafController}, measures the time
+ * from process start until the controller receives the first effect, and
+ * samples the process's resident set size until it exits.
+ * <p>
+ * Record a log with the app's own keystore first ({@code -Devents.record=<log>}),
+ * build both variants ({@code mvn package} and {@code mvn -Pnative package}),
+ * then run from the repository root:
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar com.cooldudes.nanoleaf.teams.indicator.StartupBenchmark events.log 10
+ * </pre>
+ * The JVM variant runs {@code app.classpath}, by default the application jar
+ * plus src/main/resources for the keystore, with the java running this
+ * benchmark and any {@code jvm.options}. The native variant runs
+ * {@code app.native}, by default target/nanoleaf-teams-indicator, and is
+ * skipped if it has not been built. Resident memory is read from /proc and is
+ * only reported on Linux.
+ */
+public class StartupBenchmark {
+
+    private static final String MAIN_CLASS = "com.cooldudes.nanoleaf.teams.indicator.NanoleafTeamsIndicator";
+    private static final String DEVICE_TOKEN = "simulated";
+    private static final Duration RUN_TIMEOUT = Duration.ofMinutes(1);
+    private static final Duration RSS_SAMPLE_INTERVAL = Duration.ofMillis(5);
+
+    private record Run(Duration firstEffect, long rssAtFirstEffectKb, long peakRssKb) {
+    }
+
+    /**
+     * @param args the event log to replay, and optionally the number of runs per variant
+     * @throws Exception if a run fails or times out
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: StartupBenchmark <event log> [runs]");
+            System.exit(2);
+        }
+        Path log = Path.of(args[0]).toAbsolutePath();
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        List<String> jvm = new ArrayList<>();
+        jvm.add(ProcessHandle.current().info().command().orElse("java"));
+        String jvmOptions = System.getProperty("jvm.options", "").trim();
+        if (!jvmOptions.isEmpty()) {
+            jvm.addAll(Arrays.asList(jvmOptions.split("\\s+")));
+        }
+        jvm.add("-cp");
+        jvm.add(System.getProperty("app.classpath",
+                "target/nanoleaf-teams-indicator-1.0-SNAPSHOT.jar" + File.pathSeparator + "src/main/resources"));
+        report("jvm", jvm, MAIN_CLASS, log, runs);
+
+        Path nativeImage = Path.of(System.getProperty("app.native", "target/nanoleaf-teams-indicator"));
+        if (Files.isExecutable(nativeImage)) {
+            report("native", List.of(nativeImage.toString()), null, log, runs);
+        } else {
+            System.out.println("native: skipped, " + nativeImage + " not built (mvn -Pnative package)");
+        }
+    }
+
+    private static void report(String variant, List<String> launcher, String mainClass, Path log, int runs)
+            throws Exception {
+        long[] firstEffect = new long[runs];
+        long[] rssAtFirstEffect = new long[runs];
+        long[] peakRss = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            Run run = run(launcher, mainClass, log);
+            firstEffect[i] = run.firstEffect().toNanos();
+            rssAtFirstEffect[i] = run.rssAtFirstEffectKb();
+            peakRss[i] = run.peakRssKb();
+        }
+        Arrays.sort(firstEffect);
+        Arrays.sort(rssAtFirstEffect);
+        Arrays.sort(peakRss);
+        System.out.printf("%s: runs=%d first_effect_p50_ms=%.1f first_effect_max_ms=%.1f "
+                        + "rss_at_first_effect_mb=%.1f peak_rss_mb=%.1f%n",
+                variant, runs,
+                EventReplayer.percentile(firstEffect, 0.50).toNanos() / 1e6, firstEffect[runs - 1] / 1e6,
+                megabytes(median(rssAtFirstEffect)), megabytes(median(peakRss)));
+    }
+
+    private static Run run(List<String> launcher, String mainClass, Path log) throws Exception {
+        try (FakeNanoleafController controller = new FakeNanoleafController(DEVICE_TOKEN)) {
+            List<String> command = new ArrayList<>(launcher);
+            // Native executables read -D options ahead of the program arguments too
+            command.add("-Dnanoleaf.port=" + controller.getPort());
+            if (mainClass != null) {
+                command.add(mainClass);
+            }
+            command.addAll(List.of("--replay", log.toString(), "max", "127.0.0.1", DEVICE_TOKEN));
+
+            long start = System.nanoTime();
+            Process process = new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            long[] peakRss = {-1};
+            Thread sampler = Thread.ofVirtual().start(() -> {
+                while (process.isAlive()) {
+                    peakRss[0] = Math.max(peakRss[0], residentKb(process.pid()));
+                    try {
+                        Thread.sleep(RSS_SAMPLE_INTERVAL);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            });
+            try {
+                try {
+                    CompletableFuture.anyOf(controller.firstEffect(), process.onExit())
+                            .get(RUN_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    throw new TimeoutException("No effect written within " + RUN_TIMEOUT.toSeconds() + " s by " + command);
+                }
+                if (!controller.firstEffect().isDone()) {
+                    throw new IOException("App exited with status " + process.exitValue()
+                            + " without writing an effect: " + String.join(" ", command));
+                }
+                long firstEffect = controller.firstEffect().join();
+                long rssAtFirstEffect = residentKb(process.pid());
+                if (!process.waitFor(RUN_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+                    throw new TimeoutException("App did not exit after replaying " + log);
+                }
+                sampler.join();
+                return new Run(Duration.ofNanos(firstEffect - start), rssAtFirstEffect, peakRss[0]);
+            } finally {
+                process.destroyForcibly();
+                sampler.interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return the process's resident set size in kB, or -1 if it cannot be read
+     */
+    private static long residentKb(long pid) {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc", Long.toString(pid), "status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("\\D", ""));
+                }
+            }
+        } catch (IOException | NumberFormatException ignored) {
+        }
+        return -1;
+    }
+
+    private static long median(long[] sorted) {
+        return sorted[(sorted.length - 1) / 2];
+    }
+
+    private static double megabytes(long kb) {
+        return kb < 0 ? -1 : kb / 1024.0;
+    }
+}
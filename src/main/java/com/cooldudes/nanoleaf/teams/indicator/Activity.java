@@ -0,0 +1,43 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * What a user is doing, as reported by Graph in {@code activity}.
+ */
+public enum Activity {
+    Available,
+    Away,
+    BeRightBack,
+    Busy,
+    DoNotDisturb,
+    InACall,
+    InAConferenceCall,
+    Inactive,
+    InAMeeting,
+    Offline,
+    OffWork,
+    OutOfOffice,
+    Presenting,
+    UrgentInterruptionsOnly,
+    PresenceUnknown;
+
+    static final Activity[] VALUES = values();
+    private static final Map<String, Activity> BY_NAME = new HashMap<>();
+
+    static {
+        for (Activity activity : VALUES) {
+            BY_NAME.put(activity.name(), activity);
+        }
+    }
+
+    /**
+     * @param name the value Graph reported
+     * @return the matching activity, or {@link #PresenceUnknown} for null or unrecognized values
+     */
+    public static Activity fromGraph(String name) {
+        Activity activity = name == null ? null : BY_NAME.get(name);
+        return activity != null ? activity : PresenceUnknown;
+    }
+}
@@ -0,0 +1,76 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Caps the number of asynchronous operations running at once without blocking
+ * any thread. Operations over the limit are queued and started, in order, as
+ * running ones complete.
+ */
+final class AsyncLimiter {
+
+    private final int maxInFlight;
+    private final Queue<Runnable> waiting = new ArrayDeque<>();
+    private int inFlight;
+
+    /**
+     * @param maxInFlight how many operations may run at the same time
+     */
+    AsyncLimiter(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight should be at least 1");
+        }
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Starts {@code operation} now if a slot is free, otherwise once one frees up.
+     *
+     * @param operation starts the operation and returns its future
+     * @return a future completed with the operation's result
+     */
+    <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> operation) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Runnable start = () -> {
+            CompletableFuture<T> started;
+            try {
+                started = operation.get();
+            } catch (Exception e) {
+                started = CompletableFuture.failedFuture(e);
+            }
+            started.whenComplete((value, error) -> {
+                release();
+                if (error == null) {
+                    result.complete(value);
+                } else {
+                    result.completeExceptionally(error);
+                }
+            });
+        };
+        synchronized (this) {
+            if (inFlight >= maxInFlight) {
+                waiting.add(start);
+                return result;
+            }
+            inFlight++;
+        }
+        start.run();
+        return result;
+    }
+
+    private void release() {
+        Runnable next;
+        synchronized (this) {
+            next = waiting.poll();
+            if (next == null) {
+                inFlight--;
+            }
+        }
+        if (next != null) {
+            next.run();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A user's base presence, as reported by Graph in {@code availability}.
+ */
+public enum Availability {
+    Available,
+    AvailableIdle,
+    Away,
+    BeRightBack,
+    Busy,
+    BusyIdle,
+    DoNotDisturb,
+    Offline,
+    PresenceUnknown;
+
+    static final Availability[] VALUES = values();
+    private static final Map<String, Availability> BY_NAME = new HashMap<>();
+
+    static {
+        for (Availability availability : VALUES) {
+            BY_NAME.put(availability.name(), availability);
+        }
+    }
+
+    /**
+     * @param name the value Graph reported
+     * @return the matching availability, or {@link #PresenceUnknown} for null or unrecognized values
+     */
+    public static Availability fromGraph(String name) {
+        Availability availability = name == null ? null : BY_NAME.get(name);
+        return availability != null ? availability : PresenceUnknown;
+    }
+}
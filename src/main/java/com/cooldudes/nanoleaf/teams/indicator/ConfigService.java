@@ -0,0 +1,192 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Holds every properties file of the resources directory in memory as an
+ * immutable snapshot, so settings are read from disk once rather than on
+ * every use. While started, the directory is watched and a file that changes
+ * on disk is read again and swapped into a new snapshot, after which the
+ * listeners registered for that file are told.
+ */
+public final class ConfigService {
+
+    private static final Path DIR = Path.of(Graph.CONFIG_DIR);
+    // Editors often write a file in several steps; wait for them to finish
+    private static final Duration SETTLE_DELAY = Duration.ofMillis(200);
+    private static final AtomicReference<Map<String, Map<String, String>>> SNAPSHOT = new AtomicReference<>(Map.of());
+    private static final Map<String, List<Consumer<Map<String, String>>>> LISTENERS = new ConcurrentHashMap<>();
+
+    private static WatchService watcher;
+    private static Thread watchThread;
+
+    private ConfigService() {
+    }
+
+    /**
+     * Starts watching the resources directory for changes.
+     *
+     * @throws IOException if the directory cannot be watched
+     */
+    public static synchronized void start() throws IOException {
+        if (watcher != null) {
+            return;
+        }
+        Files.createDirectories(DIR);
+        watcher = FileSystems.getDefault().newWatchService();
+        DIR.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+        WatchService service = watcher;
+        watchThread = Thread.ofVirtual().name("config-watcher").start(() -> watchLoop(service));
+    }
+
+    /**
+     * Stops watching. The last snapshot stays in use.
+     */
+    public static synchronized void stop() {
+        if (watcher == null) {
+            return;
+        }
+        watchThread.interrupt();
+        try {
+            watcher.close();
+        } catch (IOException ignored) {
+        }
+        watcher = null;
+        watchThread = null;
+    }
+
+    /**
+     * Returns a file's settings from the current snapshot, reading the file
+     * the first time it is asked for.
+     *
+     * @param fileName name of a file in the resources directory
+     * @return the file's settings, empty if the file does not exist
+     */
+    static Map<String, String> get(String fileName) {
+        Map<String, String> contents = SNAPSHOT.get().get(fileName);
+        if (contents != null) {
+            return contents;
+        }
+        synchronized (ConfigService.class) {
+            contents = SNAPSHOT.get().get(fileName);
+            if (contents == null) {
+                contents = read(fileName);
+                swap(fileName, contents);
+            }
+            return contents;
+        }
+    }
+
+    /**
+     * Calls {@code listener} with a file's new settings every time the file
+     * changes on disk.
+     *
+     * @param fileName name of a file in the resources directory
+     * @param listener receives the new settings
+     */
+    static void onChange(String fileName, Consumer<Map<String, String>> listener) {
+        LISTENERS.computeIfAbsent(fileName, _ -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    /**
+     * Replaces a file's settings, in the snapshot first and then on disk.
+     * The file is replaced in one move so the watcher never sees it half
+     * written.
+     *
+     * @param fileName name of a file in the resources directory
+     * @param contents the complete new settings
+     * @throws IOException if the file cannot be written
+     */
+    static synchronized void store(String fileName, Map<String, String> contents) throws IOException {
+        Map<String, String> copy = Map.copyOf(contents);
+        swap(fileName, copy);
+        Properties props = new Properties();
+        props.putAll(copy);
+        Files.createDirectories(DIR);
+        Path target = DIR.resolve(fileName);
+        Path temp = DIR.resolve(fileName + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            props.store(out, null);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void watchLoop(WatchService service) {
+        while (!Thread.currentThread().isInterrupted()) {
+            Set<String> changed = new LinkedHashSet<>();
+            try {
+                WatchKey key = service.take();
+                Thread.sleep(SETTLE_DELAY);
+                do {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.context() instanceof Path path && path.toString().endsWith(".properties")) {
+                            changed.add(path.toString());
+                        }
+                    }
+                    key.reset();
+                    key = service.poll();
+                } while (key != null);
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            changed.forEach(ConfigService::reload);
+        }
+    }
+
+    private static void reload(String fileName) {
+        Map<String, String> contents;
+        synchronized (ConfigService.class) {
+            contents = read(fileName);
+            if (contents.equals(SNAPSHOT.get().get(fileName))) {
+                return;
+            }
+            swap(fileName, contents);
+        }
+        System.out.println("Reloaded " + fileName);
+        for (Consumer<Map<String, String>> listener : LISTENERS.getOrDefault(fileName, List.of())) {
+            try {
+                listener.accept(contents);
+            } catch (Exception e) {
+                System.err.println("Could not apply " + fileName + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static void swap(String fileName, Map<String, String> contents) {
+        SNAPSHOT.updateAndGet(current -> {
+            Map<String, Map<String, String>> next = new HashMap<>(current);
+            next.put(fileName, contents);
+            return Collections.unmodifiableMap(next);
+        });
+    }
+
+    private static Map<String, String> read(String fileName) {
+        Path path = DIR.resolve(fileName);
+        if (!Files.exists(path)) {
+            return Map.of();
+        }
+        Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(path)) {
+            props.load(in);
+        } catch (IOException e) {
+            System.err.println("Could not read " + fileName + ": " + e.getMessage());
+            Map<String, String> previous = SNAPSHOT.get().get(fileName);
+            return previous != null ? previous : Map.of();
+        }
+        Map<String, String> contents = new HashMap<>();
+        for (String key : props.stringPropertyNames()) {
+            contents.put(key, props.getProperty(key));
+        }
+        return Map.copyOf(contents);
+    }
+}
@@ -0,0 +1,159 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Holds the private keys used to decrypt Graph resource data, loaded once from
+ * the JKS keystore, together with reusable per-thread cipher instances.
+ */
+public class DecryptionKeys {
+
+    static final String RSA_TRANSFORMATION = "RSA/ECB/OAEPWithSHA1AndMGF1Padding";
+    static final String AES_TRANSFORMATION = "AES/CBC/PKCS5PADDING";
+    static final String HMAC_ALGORITHM = "HMACSHA256";
+
+    private static volatile DecryptionKeys instance;
+
+    private final Map<String, PrivateKey> privateKeys;
+    private final ThreadLocal<Cipher> rsaCipher = ThreadLocal.withInitial(() -> newCipher(RSA_TRANSFORMATION));
+    private final ThreadLocal<Cipher> aesCipher = ThreadLocal.withInitial(() -> newCipher(AES_TRANSFORMATION));
+    private final ThreadLocal<Mac> hmac = ThreadLocal.withInitial(DecryptionKeys::newMac);
+
+    /**
+     * Creates key material from already loaded private keys.
+     *
+     * @param privateKeys private keys indexed by encryption certificate id
+     */
+    public DecryptionKeys(Map<String, PrivateKey> privateKeys) {
+        this.privateKeys = Collections.unmodifiableMap(new HashMap<>(privateKeys));
+    }
+
+    /**
+     * Loads the keystore named by {@code /keystore.properties} and makes it the
+     * shared instance. Intended to be called once at startup.
+     *
+     * @return the loaded key material
+     * @throws Exception if the keystore or its properties cannot be read
+     */
+    public static DecryptionKeys load() throws Exception {
+        DecryptionKeys keys = fromKeystore();
+        install(keys);
+        return keys;
+    }
+
+    /**
+     * Replaces the shared instance.
+     *
+     * @param keys the key material to use for all subsequent decryption
+     */
+    public static void install(DecryptionKeys keys) {
+        instance = keys;
+    }
+
+    /**
+     * Returns the shared instance, loading it from the keystore on first use.
+     *
+     * @return the shared key material
+     * @throws Exception if the keystore has not been loaded and cannot be read
+     */
+    public static DecryptionKeys get() throws Exception {
+        DecryptionKeys keys = instance;
+        if (keys == null) {
+            synchronized (DecryptionKeys.class) {
+                keys = instance;
+                if (keys == null) {
+                    keys = fromKeystore();
+                    instance = keys;
+                }
+            }
+        }
+        return keys;
+    }
+
+    private static DecryptionKeys fromKeystore() throws Exception {
+        Properties properties = new Properties();
+        String storepass; //password used to open the jks store
+        try (InputStream is = DecryptionKeys.class.getResourceAsStream("/keystore.properties")) {
+            properties.load(is);
+            storepass = properties.getProperty("pass");
+        } catch (Exception e) {
+            throw new Exception("Could not read properties for keystore", e);
+        }
+        try (InputStream is = DecryptionKeys.class.getResourceAsStream("/keystore.jks")) {
+            KeyStore ks = KeyStore.getInstance("JKS");
+            ks.load(is, storepass.toCharArray());
+            Map<String, PrivateKey> keys = new HashMap<>();
+            for (String alias : Collections.list(ks.aliases())) {
+                Key key = ks.getKey(alias, storepass.toCharArray());
+                if (key instanceof PrivateKey privateKey) {
+                    keys.put(alias, privateKey);
+                }
+            }
+            return new DecryptionKeys(keys);
+        } catch (Exception e) {
+            throw new Exception("Error getting keystore: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Gets the private key for an encryption certificate.
+     *
+     * @param encryptionCertificateId the certificate id sent with the notification
+     * @return the private key
+     * @throws GeneralSecurityException if no key exists for the id
+     */
+    PrivateKey privateKey(String encryptionCertificateId) throws GeneralSecurityException {
+        PrivateKey key = privateKeys.get(encryptionCertificateId);
+        if (key == null) {
+            throw new GeneralSecurityException("No private key for certificate " + encryptionCertificateId);
+        }
+        return key;
+    }
+
+    /**
+     * @return this thread's RSA cipher; callers must initialize it before use
+     */
+    Cipher rsaCipher() {
+        return rsaCipher.get();
+    }
+
+    /**
+     * @return this thread's AES cipher; callers must initialize it before use
+     */
+    Cipher aesCipher() {
+        return aesCipher.get();
+    }
+
+    /**
+     * @return this thread's HMAC-SHA256 instance; callers must initialize it before use
+     */
+    Mac hmac() {
+        return hmac.get();
+    }
+
+    private static Cipher newCipher(String transformation) {
+        try {
+            return Cipher.getInstance(transformation);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cipher unavailable: " + transformation, e);
+        }
+    }
+
+    private static Mac newMac() {
+        try {
+            return Mac.getInstance(HMAC_ALGORITHM);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Mac unavailable: " + HMAC_ALGORITHM, e);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Stops writing to a device that has stopped answering. Once tripped, only the
+ * latest presence is kept while the device is probed in the background with
+ * exponential backoff. When a probe succeeds, that presence is applied while
+ * the breaker is still half-open, so the regular writer keeps handing newer
+ * presences to the breaker instead of writing at the same time. The breaker
+ * closes once nothing newer is waiting.
+ */
+class DeviceCircuitBreaker {
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /**
+     * Checks whether the device answers again.
+     */
+    interface Probe {
+        void check() throws Exception;
+    }
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "device-reconnect");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final String label;
+    private final Duration baseDelay;
+    private final Duration maxDelay;
+    private final Probe probe;
+    private final Consumer<Presence> onRecovered;
+    private State state = State.CLOSED;
+    private Presence pending;
+    private int failedProbes;
+
+    /**
+     * @param label       name of the device, used in log output
+     * @param baseDelay   delay before the first probe
+     * @param maxDelay    upper bound for the delay between probes
+     * @param probe       checks whether the device answers again
+     * @param onRecovered writes the latest presence once the device is back,
+     *                    and trips the breaker again if that write fails
+     */
+    DeviceCircuitBreaker(String label, Duration baseDelay, Duration maxDelay, Probe probe,
+                         Consumer<Presence> onRecovered) {
+        this.label = label;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.probe = probe;
+        this.onRecovered = onRecovered;
+    }
+
+    /**
+     * Lets a write through if the device is considered reachable; otherwise
+     * keeps {@code presence} as the one to apply on recovery.
+     *
+     * @param presence the presence about to be written
+     * @return true if the caller should write to the device now
+     */
+    synchronized boolean allow(Presence presence) {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        pending = presence;
+        return false;
+    }
+
+    /**
+     * Opens the breaker after a failed write and starts probing.
+     *
+     * @param presence the presence that could not be written
+     */
+    synchronized void trip(Presence presence) {
+        if (state == State.OPEN) {
+            pending = presence;
+            return;
+        }
+        if (state == State.CLOSED) {
+            pending = presence;
+            failedProbes = 0;
+            System.err.println("Device " + label + " unreachable, retrying in the background.");
+        } else {
+            // The recovery write failed; keep a newer presence that arrived meanwhile
+            if (pending == null) {
+                pending = presence;
+            }
+            failedProbes++;
+        }
+        state = State.OPEN;
+        scheduleProbe();
+    }
+
+    /**
+     * @return the current state
+     */
+    synchronized State state() {
+        return state;
+    }
+
+    private void scheduleProbe() {
+        long ceiling = Math.min(baseDelay.toMillis() << Math.min(failedProbes, 16), maxDelay.toMillis());
+        long delay = ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+        SCHEDULER.schedule(() -> Thread.ofVirtual().name("device-probe").start(this::runProbe),
+                delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void runProbe() {
+        synchronized (this) {
+            state = State.HALF_OPEN;
+        }
+        try {
+            probe.check();
+        } catch (Exception e) {
+            synchronized (this) {
+                state = State.OPEN;
+                failedProbes++;
+                scheduleProbe();
+            }
+            return;
+        }
+        System.out.println("Device " + label + " reachable again.");
+        while (true) {
+            Presence latest;
+            synchronized (this) {
+                if (state != State.HALF_OPEN) {
+                    // The recovery write tripped the breaker again
+                    return;
+                }
+                latest = pending;
+                pending = null;
+                if (latest == null) {
+                    state = State.CLOSED;
+                    return;
+                }
+            }
+            try {
+                onRecovered.accept(latest);
+            } catch (RuntimeException e) {
+                trip(latest);
+                return;
+            }
+        }
+    }
+}
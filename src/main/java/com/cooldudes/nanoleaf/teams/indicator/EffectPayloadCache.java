@@ -0,0 +1,60 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Holds the {@code {"write": ...}} request body for every palette in
+ * {@link NanoleafShapes#getStatusPalettes()}, serialized once. The cache is
+ * rebuilt whenever the palette table is replaced.
+ */
+final class EffectPayloadCache {
+
+    private record Compiled(Map<String, NanoleafEffect.PaletteColor[]> source,
+                            Map<NanoleafEffect.PaletteColor[], byte[]> payloads) {
+    }
+
+    private static volatile Compiled compiled;
+
+    private EffectPayloadCache() {
+    }
+
+    /**
+     * Gets the request body that displays {@code palette}. The returned array
+     * is shared and must not be modified.
+     *
+     * @param palette a palette from the current palette table
+     * @return the UTF-8 encoded request body
+     */
+    static byte[] payloadFor(NanoleafEffect.PaletteColor[] palette) {
+        Map<String, NanoleafEffect.PaletteColor[]> source = NanoleafShapes.getStatusPalettes();
+        Compiled current = compiled;
+        if (current == null || current.source() != source) {
+            current = compile(source);
+            compiled = current;
+        }
+        byte[] payload = current.payloads().get(palette);
+        // Palettes that are not part of the table are serialized on demand
+        return payload != null ? payload : serialize(palette);
+    }
+
+    /**
+     * Drops all compiled payloads so they are rebuilt on next use.
+     */
+    static void invalidate() {
+        compiled = null;
+    }
+
+    private static Compiled compile(Map<String, NanoleafEffect.PaletteColor[]> source) {
+        Map<NanoleafEffect.PaletteColor[], byte[]> payloads = new IdentityHashMap<>();
+        for (NanoleafEffect.PaletteColor[] palette : source.values()) {
+            payloads.put(palette, serialize(palette));
+        }
+        return new Compiled(source, Collections.unmodifiableMap(payloads));
+    }
+
+    private static byte[] serialize(NanoleafEffect.PaletteColor[] palette) {
+        return new NanoleafEffect(palette).toWritePayload();
+    }
+}
@@ -1,40 +1,118 @@
 package com.cooldudes.nanoleaf.teams.indicator;
 
-import com.nimbusds.oauth2.sdk.util.JSONUtils;
 import net.minidev.json.JSONObject;
 
 import javax.crypto.*;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
-import java.io.FileNotFoundException;
-import java.io.InputStream;
 import java.security.*;
-import java.util.Arrays;
 import java.util.Base64;
-import java.util.Properties;
 
 public class EncryptedData {
-    private final String data;
-    private final String dataSignature;
-    private final String dataKey;
+    private final byte[] data;
+    private final byte[] dataSignature;
+    private final byte[] dataKey;
     private final String encryptionCertificateId;
 
 
     public EncryptedData(JSONObject json) {
-        this.data = json.getAsString("data");
-        this.dataSignature = json.getAsString("dataSignature");
-        this.dataKey = json.getAsString("dataKey");
-        this.encryptionCertificateId = json.getAsString("encryptionCertificateId");
-        String encryptionCertificateThumbprint = json.getAsString("encryptionCertificateThumbprint");
+        this(json.getAsString("encryptionCertificateId"),
+                Base64.getDecoder().decode(json.getAsString("data")),
+                Base64.getDecoder().decode(json.getAsString("dataSignature")),
+                Base64.getDecoder().decode(json.getAsString("dataKey")));
+    }
+
+    EncryptedData(String encryptionCertificateId, byte[] data, byte[] dataSignature, byte[] dataKey) {
+        this.encryptionCertificateId = encryptionCertificateId;
+        this.data = data;
+        this.dataSignature = dataSignature;
+        this.dataKey = dataKey;
+    }
+
+    /**
+     * Reads the encrypted content object of a notification in one pass,
+     * decoding its Base64 fields straight from the text.
+     *
+     * @param json the {@code encryptedContent} object
+     * @return the encrypted data
+     * @throws IllegalArgumentException if the JSON is malformed or a field is missing
+     */
+    static EncryptedData parse(CharSequence json) {
+        JsonScanner scanner = new JsonScanner(json);
+        scanner.beginObject();
+        Reader reader = new Reader();
+        while (scanner.nextField()) {
+            if (!reader.accept(scanner)) {
+                scanner.skipValue();
+            }
+        }
+        return reader.build();
+    }
+
+    /**
+     * Collects the fields of an {@code encryptedContent} object while another
+     * reader walks it.
+     */
+    static final class Reader {
+        private String certificateId;
+        private byte[] data;
+        private byte[] signature;
+        private byte[] key;
+
+        /**
+         * Reads the scanner's current field if it belongs to encrypted content.
+         *
+         * @param scanner a scanner positioned on a field
+         * @return false if the field was left for the caller
+         */
+        boolean accept(JsonScanner scanner) {
+            if (scanner.fieldIs("data")) {
+                data = scanner.base64Value();
+            } else if (scanner.fieldIs("dataSignature")) {
+                signature = scanner.base64Value();
+            } else if (scanner.fieldIs("dataKey")) {
+                key = scanner.base64Value();
+            } else if (scanner.fieldIs("encryptionCertificateId")) {
+                certificateId = scanner.stringValue();
+            } else {
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * @return whether any encrypted content field was read
+         */
+        boolean isEmpty() {
+            return data == null && signature == null && key == null && certificateId == null;
+        }
+
+        /**
+         * @return whether every field needed to decrypt was read
+         */
+        boolean isComplete() {
+            return data != null && signature != null && key != null;
+        }
+
+        /**
+         * @return the encrypted data
+         * @throws IllegalArgumentException if a field is missing
+         */
+        EncryptedData build() {
+            if (data == null || signature == null || key == null) {
+                throw new IllegalArgumentException("Encrypted content is missing data, dataSignature or dataKey");
+            }
+            return new EncryptedData(certificateId, data, signature, key);
+        }
     }
 
     public Presence decryptData() throws Exception {
         try {
-            byte[] symmetricKey = decryptSymmetricKey();
-            if (checkSignature(symmetricKey)) {
-                String resourceData = decryptResourceData(symmetricKey);
-                JSONObject resourceObj = (JSONObject) JSONUtils.parseJSON(resourceData);
-                return new Presence(resourceObj.getAsString("availability"), resourceObj.getAsString("activity"));
+            DecryptionKeys keys = DecryptionKeys.get();
+            byte[] symmetricKey = decryptSymmetricKey(keys);
+            if (checkSignature(keys, symmetricKey, this.data)) {
+                byte[] resourceData = decryptResourceData(keys, symmetricKey, this.data);
+                return parsePresence(resourceData);
             }
             return null;
         } catch (Exception e) {
@@ -42,54 +120,66 @@ public class EncryptedData {
         }
     }
 
-    private byte[] decryptSymmetricKey() throws Exception {
-        Properties properties = new Properties();
-        String storepass; //password used to open the jks store
-        try (InputStream is = EncryptedData.class.getResourceAsStream("/keystore.properties")) {
-            properties.load(is);
-            storepass = properties.getProperty("pass");
-        } catch (Exception e) {
-            throw new Exception("Could not read properties for keystore", e);
-        }
-        String storename = "/keystore.jks"; //name/path of the jks store
+    private byte[] decryptSymmetricKey(DecryptionKeys keys) throws Exception {
         try {
-            KeyStore ks = KeyStore.getInstance("JKS");
-            ks.load(EncryptedData.class.getResourceAsStream(storename), storepass.toCharArray());
-            Key asymmetricKey = ks.getKey(this.encryptionCertificateId, storepass.toCharArray());
-            byte[] encryptedSymmetricKey = Base64.getDecoder().decode(this.dataKey);
-            Cipher cipher = Cipher.getInstance("RSA/ECB/OAEPWithSHA1AndMGF1Padding");
+            PrivateKey asymmetricKey = keys.privateKey(this.encryptionCertificateId);
+            Cipher cipher = keys.rsaCipher();
             cipher.init(Cipher.DECRYPT_MODE, asymmetricKey);
-            return cipher.doFinal(encryptedSymmetricKey);
+            return cipher.doFinal(this.dataKey);
 // Can now use decryptedSymmetricKey with the AES algorithm.
-        } catch (KeyStoreException | FileNotFoundException e) {
-            System.out.println("Error getting keystore: " + e.getMessage());
-            return null;
-
         } catch (Exception e) {
             throw new Exception("Error symmetric key: " + e.getMessage(), e);
         }
     }
 
-    private boolean checkSignature(byte[] symmetricKey) throws NoSuchAlgorithmException, InvalidKeyException {
-        byte[] decodedEncryptedData = Base64.getDecoder().decode(this.data);
-        SecretKey skey = new SecretKeySpec(symmetricKey, "HMACSHA256");
-            Mac mac = Mac.getInstance("HMACSHA256");
+    private boolean checkSignature(DecryptionKeys keys, byte[] symmetricKey, byte[] decodedEncryptedData) throws InvalidKeyException {
+        SecretKey skey = new SecretKeySpec(symmetricKey, DecryptionKeys.HMAC_ALGORITHM);
+            Mac mac = keys.hmac();
             mac.init(skey);
             // Compute the HMAC on the decoded encrypted data
             byte[] computedHmac = mac.doFinal(decodedEncryptedData);
-            // Encode the computed HMAC to Base64
-            String encodedComputedHmac = Base64.getEncoder().encodeToString(computedHmac);
-            return encodedComputedHmac.equals(this.dataSignature);
+            // Compare against the decoded signature in constant time
+            return MessageDigest.isEqual(computedHmac, this.dataSignature);
 
     }
 
-    private String decryptResourceData(byte[] symmetricKey) throws InvalidAlgorithmParameterException, InvalidKeyException, NoSuchPaddingException, NoSuchAlgorithmException, IllegalBlockSizeException, BadPaddingException {
+    private byte[] decryptResourceData(DecryptionKeys keys, byte[] symmetricKey, byte[] decodedEncryptedData) throws InvalidAlgorithmParameterException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
             SecretKey skey = new SecretKeySpec(symmetricKey, "AES");
-            IvParameterSpec ivspec = new IvParameterSpec(Arrays.copyOf(symmetricKey, 16));
-            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5PADDING");
+            IvParameterSpec ivspec = new IvParameterSpec(symmetricKey, 0, 16);
+            Cipher cipher = keys.aesCipher();
             cipher.init(Cipher.DECRYPT_MODE, skey, ivspec);
-        return new String(cipher.doFinal(Base64.getDecoder().decode(this.data)));
+        return cipher.doFinal(decodedEncryptedData);
+
+    }
 
+    /**
+     * Reads availability, activity, the user id and the version stamp from the
+     * decrypted resource without decoding the rest of it.
+     */
+    private static Presence parsePresence(byte[] resourceData) {
+        JsonScanner scanner = JsonScanner.ofAscii(resourceData);
+        scanner.beginObject();
+        String availability = null;
+        String activity = null;
+        String userId = null;
+        String sequenceNumber = null;
+        while (scanner.nextField()) {
+            if (scanner.fieldIs("availability")) {
+                availability = scanner.stringValue();
+            } else if (scanner.fieldIs("activity")) {
+                activity = scanner.stringValue();
+            } else if (scanner.fieldIs("id")) {
+                userId = scanner.stringValue();
+            } else if (scanner.fieldIs("sequenceNumber")) {
+                sequenceNumber = scanner.stringValue();
+            } else {
+                scanner.skipValue();
+            }
+        }
+        Presence presence = new Presence(availability, activity);
+        presence.userId = userId;
+        presence.sequenceNumber = sequenceNumber;
+        return presence;
     }
 
 
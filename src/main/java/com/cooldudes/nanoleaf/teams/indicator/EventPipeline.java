@@ -0,0 +1,238 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Moves presence events off the Pusher event thread. Raw payloads are handed
+ * to a decode stage through a small bounded queue, decoded presences are
+ * coalesced so only the newest one is kept, and a writer stage applies it to
+ * the device at most once per settle window.
+ * <p>
+ * A payload may carry several notifications. They are ordered by Graph's
+ * presence version stamp, only the newest per user is kept, and a presence
+ * whose stamp is not above the highest seen for its user is dropped.
+ * Presences without a stamp, such as polled ones, are always applied and
+ * leave the highest stamp as it was.
+ */
+public class EventPipeline implements AutoCloseable {
+
+    private static final int RAW_QUEUE_CAPACITY = 64;
+
+    private final StatusChangeHandler handler;
+    private final Duration settleWindow;
+    private final BlockingQueue<RawEvent> rawEvents = new ArrayBlockingQueue<>(RAW_QUEUE_CAPACITY);
+    private final AtomicReference<Presence> latest = new AtomicReference<>();
+    private final Map<String, String> newestSequence = new ConcurrentHashMap<>();
+    private final Semaphore pending = new Semaphore(0);
+    private final AtomicInteger undecoded = new AtomicInteger();
+    private volatile boolean writing;
+    private volatile Thread decoder;
+    private volatile Thread writer;
+
+    private record RawEvent(String data, List<EncryptedData> contents, EventTrace trace) {
+    }
+
+    private EventPipeline(StatusChangeHandler handler, Duration settleWindow) {
+        this.handler = handler;
+        this.settleWindow = settleWindow;
+    }
+
+    /**
+     * Creates a pipeline and starts its decode and writer stages.
+     *
+     * @param handler      receives the newest presence
+     * @param settleWindow minimum time between two calls to the handler
+     * @return the running pipeline
+     */
+    public static EventPipeline start(StatusChangeHandler handler, Duration settleWindow) {
+        EventPipeline pipeline = new EventPipeline(handler, settleWindow);
+        pipeline.decoder = Thread.ofVirtual().name("event-decoder").start(pipeline::decodeLoop);
+        pipeline.writer = Thread.ofVirtual().name("event-writer").start(pipeline::writeLoop);
+        return pipeline;
+    }
+
+    /**
+     * Queues a raw {@code status-update} payload. Never blocks; if the decode
+     * stage has fallen behind, the oldest queued payload is dropped.
+     *
+     * @param eventData raw event payload received from Pusher
+     */
+    public void submit(String eventData) {
+        enqueue(new RawEvent(eventData, null, Metrics.eventReceived()));
+    }
+
+    /**
+     * Queues the encrypted contents of notifications that were already split
+     * out of their payload. Never blocks.
+     *
+     * @param contents encrypted contents, in payload order
+     */
+    void submit(List<EncryptedData> contents) {
+        enqueue(new RawEvent(null, contents, Metrics.eventReceived()));
+    }
+
+    /**
+     * Queues a raw {@code status-update} payload, waiting for room if the
+     * decode stage has fallen behind instead of dropping anything. Meant for
+     * replaying recorded events, where every one of them should be decoded.
+     *
+     * @param eventData raw event payload
+     * @throws InterruptedException if interrupted while waiting for room
+     */
+    void put(String eventData) throws InterruptedException {
+        undecoded.incrementAndGet();
+        rawEvents.put(new RawEvent(eventData, null, Metrics.eventReceived()));
+    }
+
+    /**
+     * @return whether every queued event has been decoded and the newest
+     *         presence, if any, has been handed to the handler
+     */
+    boolean isIdle() {
+        return undecoded.get() == 0 && latest.get() == null && !writing;
+    }
+
+    private void enqueue(RawEvent event) {
+        undecoded.incrementAndGet();
+        while (!rawEvents.offer(event)) {
+            if (rawEvents.poll() != null) {
+                undecoded.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Queues an already decoded presence, replacing any presence not yet
+     * applied.
+     *
+     * @param presence the newest presence
+     */
+    public void publish(Presence presence) {
+        String sequence = presence.sequenceNumber;
+        if (sequence != null) {
+            String user = presence.userId != null ? presence.userId : "";
+            boolean[] stale = new boolean[1];
+            newestSequence.compute(user, (_, newest) -> {
+                stale[0] = presence.isStaleComparedTo(newest);
+                return stale[0] ? newest : sequence;
+            });
+            if (stale[0]) {
+                System.out.println("Dropping stale presence " + presence);
+                return;
+            }
+        }
+        latest.set(presence);
+        pending.release();
+    }
+
+    private void decodeLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            RawEvent event;
+            try {
+                event = rawEvents.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                List<Presence> newest = decode(event);
+                if (!newest.isEmpty()) {
+                    Metrics.eventDecrypted(event.trace());
+                }
+                for (Presence presence : newest) {
+                    presence.trace = event.trace();
+                    System.out.println(presence);
+                    publish(presence);
+                }
+            } catch (Exception ex) {
+                System.out.println("Error parsing event data: " + ex.getMessage());
+            } finally {
+                undecoded.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Decrypts every notification in an event and keeps the newest presence
+     * per user, oldest user first.
+     */
+    private static List<Presence> decode(RawEvent event) throws Exception {
+        List<EncryptedData> contents = event.contents();
+        if (contents == null) {
+            contents = new ArrayList<>();
+            for (Notification notification : Notification.parseAll(event.data())) {
+                if (notification.content() != null) {
+                    contents.add(notification.content());
+                }
+            }
+        }
+        List<Presence> presences = new ArrayList<>(contents.size());
+        for (EncryptedData content : contents) {
+            Presence presence = content.decryptData();
+            if (presence != null) {
+                presences.add(presence);
+            }
+        }
+        if (presences.size() < 2) {
+            return presences;
+        }
+        // Payload order stands in for presences without a version stamp
+        if (presences.stream().allMatch(p -> p.sequenceNumber != null)) {
+            presences.sort(Comparator.comparing(p -> p.sequenceNumber));
+        }
+        Map<String, Presence> newest = new LinkedHashMap<>();
+        for (Presence presence : presences) {
+            String user = presence.userId != null ? presence.userId : "";
+            newest.remove(user);
+            newest.put(user, presence);
+        }
+        return new ArrayList<>(newest.values());
+    }
+
+    private void writeLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                pending.acquire();
+                pending.drainPermits();
+                // Set before taking the presence so isIdle never sees neither
+                writing = true;
+                Presence presence = latest.getAndSet(null);
+                if (presence == null) {
+                    writing = false;
+                    continue;
+                }
+                try {
+                    Metrics.handlerStarted(presence.trace);
+                    handler.handleStatusChange(presence);
+                    Metrics.eventHandled(presence.trace);
+                } catch (Exception ex) {
+                    System.out.println("Error updating device: " + ex.getMessage());
+                } finally {
+                    writing = false;
+                }
+                Thread.sleep(settleWindow);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stops both stages. Events still queued are discarded.
+     */
+    @Override
+    public void close() {
+        decoder.interrupt();
+        writer.interrupt();
+    }
+}
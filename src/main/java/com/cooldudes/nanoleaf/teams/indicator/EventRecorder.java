@@ -0,0 +1,96 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+
+/**
+ * Appends every raw {@code status-update} payload to a compact binary log, so
+ * a real stream of events can later be fed back through the pipeline with
+ * {@link EventReplayer}. Payloads are stored still encrypted.
+ * <p>
+ * The log starts with {@link #MAGIC}, followed by one record per event: the
+ * arrival time in microseconds since the epoch, the channel's client state,
+ * and the payload as length-prefixed UTF-8.
+ */
+public class EventRecorder implements AutoCloseable {
+
+    static final byte[] MAGIC = "NLEVLOG1".getBytes(StandardCharsets.US_ASCII);
+
+    private final DataOutputStream out;
+
+    /**
+     * Opens a log for appending, writing the header if the file is new.
+     *
+     * @param path the log file
+     * @throws IOException if the file cannot be opened or is not an event log
+     */
+    public EventRecorder(Path path) throws IOException {
+        boolean fresh = !Files.exists(path) || Files.size(path) == 0;
+        if (!fresh) {
+            try (InputStream in = Files.newInputStream(path)) {
+                if (!Arrays.equals(in.readNBytes(MAGIC.length), MAGIC)) {
+                    throw new IOException(path + " is not an event log");
+                }
+            }
+        }
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+        if (fresh) {
+            out.write(MAGIC);
+            out.flush();
+        }
+    }
+
+    /**
+     * Opens the log named by the {@code events.record} system property.
+     *
+     * @return the recorder, or null if recording is not enabled or the log cannot be opened
+     */
+    static EventRecorder fromSystemProperty() {
+        String path = System.getProperty("events.record");
+        if (path == null) {
+            return null;
+        }
+        try {
+            System.out.println("Recording events to " + path);
+            return new EventRecorder(Path.of(path));
+        } catch (IOException e) {
+            System.err.println("Could not record events: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Appends one event, stamped with the current time.
+     *
+     * @param clientState client state of the channel the event arrived on
+     * @param payload     the raw event payload
+     */
+    public synchronized void record(String clientState, String payload) {
+        byte[] data = payload.getBytes(StandardCharsets.UTF_8);
+        try {
+            out.writeLong(ChronoUnit.MICROS.between(Instant.EPOCH, Instant.now()));
+            out.writeUTF(clientState);
+            out.writeInt(data.length);
+            out.write(data);
+            // Flushed per event so a crash loses at most the event being written
+            out.flush();
+        } catch (IOException e) {
+            System.err.println("Could not record event: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            out.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds a log written by {@link EventRecorder} back through an
+ * {@link EventPipeline}, so bursts seen in production can be decrypted and
+ * handled again without a network. Events are paced by their recorded arrival
+ * times, divided by the chosen speed, or sent back to back at maximum speed.
+ */
+public final class EventReplayer {
+
+    /** Speed that ignores recorded timing and sends events as fast as the pipeline takes them. */
+    public static final double MAX_SPEED = Double.POSITIVE_INFINITY;
+    private static final Duration IDLE_POLL = Duration.ofMillis(5);
+
+    private EventReplayer() {
+    }
+
+    /**
+     * Outcome of one replay run.
+     *
+     * @param events     events read from the log
+     * @param presences  presences that reached the handler
+     * @param elapsed    time from the first event sent until the pipeline was idle
+     * @param p50Latency median time from an event being sent until its presence reached the handler
+     * @param p99Latency 99th percentile of the same
+     */
+    public record Result(int events, int presences, Duration elapsed, Duration p50Latency, Duration p99Latency) {
+
+        /**
+         * @return events replayed per second of elapsed time
+         */
+        public double eventsPerSecond() {
+            long nanos = Math.max(elapsed.toNanos(), 1);
+            return events * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d events, %d presences handled in %d ms (%.0f events/s), latency p50 %.3f ms, p99 %.3f ms",
+                    events, presences, elapsed.toMillis(), eventsPerSecond(),
+                    p50Latency.toNanos() / 1e6, p99Latency.toNanos() / 1e6);
+        }
+    }
+
+    /**
+     * Replays a log through a fresh pipeline and waits until every event has
+     * been handled.
+     *
+     * @param log     the event log
+     * @param handler receives the decrypted presences
+     * @param speed   1 for real time, 10 for ten times faster, {@link #MAX_SPEED} for no pacing
+     * @return counts, elapsed time and handler latency of the run
+     * @throws IOException          if the log cannot be read
+     * @throws InterruptedException if interrupted while pacing or waiting
+     */
+    public static Result replay(Path log, StatusChangeHandler handler, double speed)
+            throws IOException, InterruptedException {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("Speed must be positive: " + speed);
+        }
+        List<Long> latencies = new ArrayList<>();
+        StatusChangeHandler measured = presence -> {
+            if (presence.trace != null) {
+                long latency = System.nanoTime() - presence.trace.receivedNanos;
+                synchronized (latencies) {
+                    latencies.add(latency);
+                }
+            }
+            handler.handleStatusChange(presence);
+        };
+        int events = 0;
+        long start;
+        try (EventPipeline pipeline = EventPipeline.start(measured, Duration.ZERO);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(log)))) {
+            if (!Arrays.equals(in.readNBytes(EventRecorder.MAGIC.length), EventRecorder.MAGIC)) {
+                throw new IOException(log + " is not an event log");
+            }
+            start = System.nanoTime();
+            long firstMicros = -1;
+            while (true) {
+                long micros;
+                try {
+                    micros = in.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                in.readUTF();
+                byte[] data = in.readNBytes(in.readInt());
+                if (firstMicros < 0) {
+                    firstMicros = micros;
+                }
+                if (speed != MAX_SPEED) {
+                    long due = start + (long) ((micros - firstMicros) * 1000 / speed);
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                }
+                pipeline.put(new String(data, StandardCharsets.UTF_8));
+                events++;
+            }
+            while (!pipeline.isIdle()) {
+                Thread.sleep(IDLE_POLL);
+            }
+        }
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+        long[] sorted;
+        synchronized (latencies) {
+            sorted = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+        }
+        return new Result(events, sorted.length, elapsed, percentile(sorted, 0.50), percentile(sorted, 0.99));
+    }
+
+    /**
+     * Parses a replay speed as given on the command line.
+     *
+     * @param value {@code realtime}, {@code max}, or a multiplier such as {@code 10} or {@code 10x}
+     * @return the speed
+     * @throws IllegalArgumentException if the value is not a positive speed
+     */
+    public static double parseSpeed(String value) {
+        String speed = value.trim().toLowerCase();
+        if (speed.equals("realtime")) {
+            return 1;
+        }
+        if (speed.equals("max")) {
+            return MAX_SPEED;
+        }
+        if (speed.endsWith("x")) {
+            speed = speed.substring(0, speed.length() - 1);
+        }
+        double parsed = Double.parseDouble(speed);
+        if (!(parsed > 0) || Double.isInfinite(parsed)) {
+            throw new IllegalArgumentException("Speed must be positive: " + value);
+        }
+        return parsed;
+    }
+
+    /**
+     * @param sorted   samples in ascending order
+     * @param quantile the quantile, from 0 to 1
+     * @return the nearest-rank quantile of the samples, zero if there are none
+     */
+    static Duration percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return Duration.ZERO;
+        }
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return Duration.ofNanos(sorted[Math.max(index, 0)]);
+    }
+}
@@ -0,0 +1,18 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+/**
+ * {@link System#nanoTime()} stamps taken as one presence event moves from
+ * Pusher to the device.
+ */
+final class EventTrace {
+    final long receivedNanos;
+    volatile long decryptedNanos;
+    volatile long handlerStartNanos;
+
+    /**
+     * @param receivedNanos when the raw event arrived
+     */
+    EventTrace(long receivedNanos) {
+        this.receivedNanos = receivedNanos;
+    }
+}
@@ -1,6 +1,5 @@
 package com.cooldudes.nanoleaf.teams.indicator;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.microsoft.aad.msal4j.*;
 import com.nimbusds.oauth2.sdk.ParseException;
 import com.nimbusds.oauth2.sdk.util.JSONUtils;
@@ -8,36 +7,63 @@ import net.minidev.json.JSONArray;
 import net.minidev.json.JSONObject;
 
 import java.io.*;
-import java.net.URI;
+import java.net.MalformedURLException;
 import java.net.URISyntaxException;
-import java.net.http.*;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BooleanSupplier;
 
 /**
  * Handles Microsoft Graph API authentication, subscription management, and
  * token refresh.
+ * <p>
+ * Each instance is one signed-in account, which may own any number of presence
+ * subscriptions. The static methods act on the primary account and its
+ * subscription in subscription.properties, as used in single-user mode.
  */
 public class Graph {
 
-    private static final String CONFIG_DIR = System.getProperty("user.dir") + File.separator + "resources" + File.separator;
-    private static final String GRAPH_BASE_URL = "https://graph.microsoft.com/v1.0";
-    private static final String SUBSCRIPTION_PROPS_PATH = CONFIG_DIR + "subscription.properties";
+    static final String CONFIG_DIR = System.getProperty("user.dir") + File.separator + "resources" + File.separator;
+    private static final String SUBSCRIPTION_PROPS_FILE = "subscription.properties";
+    private static final String ACCOUNTS_FILE = "accounts.properties";
     private static Properties oauthProps;
-    private static Properties subscriptionProps;
-    private static IAccount account;
     private static PublicClientApplication app;
-    private static String accessToken;
+    private static SubscriptionRenewalScheduler renewals;
+    private static Graph primary;
+    private static PresenceSubscription primarySubscription;
+
+    private static final Duration BATCH_LINGER = Duration.ofMillis(200);
+    private static final Duration SUBSCRIPTION_LIFETIME = Duration.ofHours(1);
+    private static final Duration DEFAULT_RENEWAL_LEAD = Duration.ofMinutes(10);
+    // A subscription this close to expiring is created again rather than renewed
+    private static final Duration EXPIRY_MARGIN = Duration.ofMinutes(5);
+
+    private final String name;
+    private final TokenManager tokens;
+    private final GraphBatcher batcher;
+
+    private Graph(String name, TokenManager tokens) {
+        this.name = name;
+        this.tokens = tokens;
+        this.batcher = new GraphBatcher(tokens, BATCH_LINGER);
+    }
 
-    private static void buildOAuthReader() {
+    private static synchronized void buildOAuthReader() {
+        if (oauthProps != null) {
+            return;
+        }
         try (InputStream is = Graph.class.getResourceAsStream("/oAuth.properties")) {
             // create properties object
-            oauthProps = new Properties();
-            oauthProps.load(is);
+            Properties props = new Properties();
+            props.load(is);
+            oauthProps = props;
         } catch (Exception e) {
             System.err.println("Error reading oAuth properties file: " + e.getMessage());
             System.err.println("Please ensure the file exists and is correctly formatted.");
@@ -45,14 +71,72 @@ public class Graph {
         }
     }
 
-    private static void buildSubscriptionReader() {
-        try (FileReader reader = new FileReader(SUBSCRIPTION_PROPS_PATH)) {
-            // create properties object
-            subscriptionProps = new Properties();
-            subscriptionProps.load(reader);
-        } catch (Exception e) {
-            System.out.println("No subscription properties file found.");
+    /**
+     * Builds the PublicClientApplication shared by every account, and the
+     * renewal scheduler shared by every subscription.
+     */
+    private static synchronized void buildApp() {
+        buildOAuthReader();
+        if (app != null) {
+            return;
+        }
+        final String clientId = oauthProps.getProperty("client_id");
+        final String tenantId = oauthProps.getProperty("tenant");
+        try {
+            // Build the PublicClientApplication instance (without scopes)
+            app = PublicClientApplication.builder(clientId)
+                    .authority("https://login.microsoftonline.com/" + tenantId)
+                    .setTokenCacheAccessAspect(new TokenCache(Path.of(CONFIG_DIR)))
+                    .build();
+        } catch (MalformedURLException e) {
+            throw new RuntimeException("Invalid tenant: " + tenantId, e);
+        }
+        Duration lead = Duration.ofMinutes(Long.parseLong(oauthProps.getProperty("renewalLeadMinutes",
+                Long.toString(DEFAULT_RENEWAL_LEAD.toMinutes()))));
+        if (lead.isNegative() || lead.compareTo(SUBSCRIPTION_LIFETIME) >= 0) {
+            System.err.println("renewalLeadMinutes must be between 0 and " + (SUBSCRIPTION_LIFETIME.toMinutes() - 1)
+                    + ", using " + DEFAULT_RENEWAL_LEAD.toMinutes() + ".");
+            lead = DEFAULT_RENEWAL_LEAD;
+        }
+        renewals = new SubscriptionRenewalScheduler(lead, Duration.ofSeconds(5), Duration.ofMinutes(2));
+    }
 
+    /**
+     * Signs an account in. The account this name used last time is signed in
+     * silently from the token cache when possible; otherwise the user is asked
+     * to sign in interactively.
+     *
+     * @param name name to identify the account by in log output
+     * @return the signed-in account
+     * @throws URISyntaxException if the redirect URI is invalid
+     */
+    public static Graph login(String name) throws URISyntaxException {
+        buildApp();
+        final String[] scopes = oauthProps.getProperty("graphUserScopes").split(",");
+        String cachedAccount = ConfigService.get(ACCOUNTS_FILE).get(name);
+        if (cachedAccount == null) {
+            System.out.println("Please log in to Microsoft" + ("default".equals(name) ? "..." : " as " + name + "..."));
+        }
+        TokenManager tokens = new TokenManager(app, new HashSet<>(Arrays.asList(scopes)));
+        tokens.login(cachedAccount);
+        System.out.println("Login successful!");
+        rememberAccount(name, tokens.account().homeAccountId());
+        return new Graph(name, tokens);
+    }
+
+    /**
+     * Saves which cached account a name signed in as, so the next start can
+     * sign it in silently.
+     */
+    private static synchronized void rememberAccount(String name, String homeAccountId) {
+        Map<String, String> accounts = new HashMap<>(ConfigService.get(ACCOUNTS_FILE));
+        if (homeAccountId.equals(accounts.put(name, homeAccountId))) {
+            return;
+        }
+        try {
+            ConfigService.store(ACCOUNTS_FILE, accounts);
+        } catch (IOException e) {
+            System.err.println("Could not save account for " + name + ": " + e.getMessage());
         }
     }
 
@@ -63,36 +147,82 @@ public class Graph {
      * @throws URISyntaxException if the redirect URI is invalid
      */
     public static String initialize() throws IOException, URISyntaxException {
+        String clientState = prepare();
+        signIn();
+        return clientState;
+    }
 
-        buildOAuthReader();
-        buildSubscriptionReader();
-        final String clientId = oauthProps.getProperty("client_id");
-        final String tenantId = oauthProps.getProperty("tenant");
-        final String[] scopes = oauthProps.getProperty("graphUserScopes").split(",");
-        System.out.println("Please log in to Microsoft...");
-        // Build the PublicClientApplication instance (without scopes)
-        app = PublicClientApplication.builder(clientId)
-                .authority("https://login.microsoftonline.com/" + tenantId)
-                .build();
+    /**
+     * Opens the primary subscription and makes sure it has a client state,
+     * without signing in, so the Pusher channel can be joined while the
+     * sign-in is still running.
+     *
+     * @return the client state naming the primary subscription's channel
+     * @throws IOException if the subscription properties cannot be written
+     */
+    public static String prepare() throws IOException {
+        primarySubscription = new PresenceSubscription(SUBSCRIPTION_PROPS_FILE);
+        if (primarySubscription.clientState() == null) {
+            primarySubscription.set("clientState", RandomGenerators.generateRandomString(7));
+            primarySubscription.store();
+        }
+        return primarySubscription.clientState();
+    }
 
-        IAuthenticationResult result = requestUserLogin(scopes);
-        accessToken = result.accessToken();
-        account = result.account();
-        String userId = account.homeAccountId().split("\\.")[0];
-        subscriptionProps.setProperty("userId", userId);
-        subscriptionProps.store(new FileOutputStream(SUBSCRIPTION_PROPS_PATH), null);
-        System.out.println("Login successful!");
-        return subscriptionProps.getProperty("clientState");
+    /**
+     * Signs the primary account in and starts renewing the subscription
+     * opened by {@link #prepare()}.
+     *
+     * @throws IOException        if the subscription properties cannot be written
+     * @throws URISyntaxException if the redirect URI is invalid
+     */
+    public static void signIn() throws IOException, URISyntaxException {
+        primary = login("default");
+        primarySubscription.set("userId", primary.userId());
+        primarySubscription.store();
+        primary.track(primarySubscription);
     }
 
-    private static IAuthenticationResult requestUserLogin(final String[] scopes) throws URISyntaxException {
-        // Request authentication interactively
-        InteractiveRequestParameters parameters = InteractiveRequestParameters.builder(
-                        new URI("http://localhost:8080")) // Redirect URI registered in Entra ID
-                .scopes(new HashSet<>(Arrays.asList(scopes)))
-                .build();
+    /**
+     * Opens the subscription saved for a Pusher channel, creating its
+     * properties file on first use.
+     *
+     * @param clientState the channel's client state
+     * @param userId      the user whose presence to watch, or null for this account's user
+     * @return the subscription
+     * @throws IOException if the properties file cannot be written
+     */
+    PresenceSubscription openSubscription(String clientState, String userId) throws IOException {
+        PresenceSubscription subscription = new PresenceSubscription("subscription-" + clientState + ".properties");
+        subscription.set("clientState", clientState);
+        subscription.set("userId", userId != null ? userId : userId());
+        subscription.store();
+        return subscription;
+    }
+
+    /**
+     * Keeps a subscription renewed ahead of its expiration. The lead time is read
+     * from {@code renewalLeadMinutes} in oAuth.properties.
+     *
+     * @param subscription the subscription to renew
+     */
+    void track(PresenceSubscription subscription) {
+        renewals.track(name + "/" + subscription.clientState(), subscription::expiration,
+                () -> ensureActiveSubscriptionAsync(subscription, Duration.ZERO));
+    }
+
+    /**
+     * @return the object id of the signed-in user
+     */
+    String userId() {
+        return tokens.account().homeAccountId().split("\\.")[0];
+    }
 
-        return app.acquireToken(parameters).join();
+    /**
+     * @return the most recent scheduled renewal attempts, oldest first
+     */
+    static List<SubscriptionRenewalScheduler.RenewalAttempt> renewalHistory() {
+        return renewals == null ? List.of() : renewals.history();
     }
 
     /**
@@ -103,100 +233,136 @@ public class Graph {
      * @throws SubscriptionException if there is an error during subscription creation
      */
     public static void createSubscription(String session, String userId) throws SubscriptionException {
+        await(createSubscriptionAsync(session, userId), "Error creating subscription: ");
+    }
 
-        HttpResponse<String> response;
-        try (HttpClient client = HttpClient.newHttpClient()) {
-            String requestBodyJson = getCreateSubRequestBodyJson(session, userId);
-            HttpRequest subscriptionRequest = HttpRequest.newBuilder()
-                    .uri(URI.create(GRAPH_BASE_URL + "/subscriptions"))
-                    .header("Authorization", "Bearer " + accessToken)
-                    .header("Accept", "application/json")
-                    .header("Content-Type", "application/json")
-                    .POST(HttpRequest.BodyPublishers.ofString(requestBodyJson, StandardCharsets.UTF_8))
-                    .build();
-            response = client.send(subscriptionRequest, HttpResponse.BodyHandlers.ofString());
-
-            if (response.statusCode() < 300) {
-                String id = ((JSONObject) JSONUtils.parseJSON(response.body())).getAsString("id");
-                String expiration = ((JSONObject) JSONUtils.parseJSON(response.body()))
-                        .getAsString("expirationDateTime");
-                subscriptionProps.setProperty("subscriptionId", id);
-                subscriptionProps.setProperty("expirationDateTime", expiration);
-                subscriptionProps.setProperty("clientState", session);
-                subscriptionProps.store(new FileOutputStream(SUBSCRIPTION_PROPS_PATH), null);
-                System.out.println("Successfully subscribed!");
-            } else if (response.statusCode() == 409) {
+    /**
+     * Creates a new Microsoft Graph subscription for presence updates without
+     * blocking the caller.
+     *
+     * @param session Unique session/client state string
+     * @param userId  Microsoft user ID
+     * @return a future completed once the subscription is stored
+     */
+    public static CompletableFuture<Void> createSubscriptionAsync(String session, String userId) {
+        primarySubscription.set("clientState", session);
+        primarySubscription.set("userId", userId);
+        return primary.createSubscriptionAsync(primarySubscription);
+    }
 
-                deleteSubscription(subscriptionProps.getProperty("subscriptionId"));
-                createSubscription(session, userId);
-            } else if (response.statusCode() == 401) {
-                getNewToken();
-                createSubscription(session, userId);
+    /**
+     * Creates a new Microsoft Graph subscription for a stored subscription's
+     * user and client state, without blocking the caller. Creations made by
+     * this account within a short window are sent in one {@code $batch}.
+     *
+     * @param subscription the subscription to create in Graph
+     * @return a future completed once the subscription is stored
+     */
+    CompletableFuture<Void> createSubscriptionAsync(PresenceSubscription subscription) {
+        String session = subscription.clientState();
+        String userId = subscription.userId();
+        String token = tokens.accessToken();
+        Map<String, Object> requestBody;
+        try {
+            requestBody = getCreateSubRequestBody(session, userId);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return batcher.submit(new GraphBatcher.Request("POST", "/subscriptions", requestBody)).thenCompose(response -> {
+            if (response.status() < 300) {
+                try {
+                    JSONObject body = (JSONObject) JSONUtils.parseJSON(response.body());
+                    subscription.set("subscriptionId", body.getAsString("id"));
+                    subscription.set("expirationDateTime", body.getAsString("expirationDateTime"));
+                    subscription.store();
+                } catch (Exception e) {
+                    return CompletableFuture.failedFuture(e);
+                }
+                System.out.println("Successfully subscribed!");
+                return CompletableFuture.completedFuture(null);
+            } else if (response.status() == 409) {
+                return deleteSubscriptionAsync(subscription).thenCompose(deleted -> deleted
+                        ? createSubscriptionAsync(subscription)
+                        : CompletableFuture.failedFuture(new RuntimeException(
+                                "Subscription conflicts with one not created for " + session + ": " + response.body())));
+            } else if (response.status() == 401) {
+                return tokens.refreshAfterUnauthorized(token)
+                        .thenCompose(_ -> createSubscriptionAsync(subscription));
             } else {
-                System.out.println("Response Code: " + response.statusCode());
+                System.out.println("Response Code: " + response.status());
                 System.err.println(response.body());
-                throw new RuntimeException(response.body());
-
+                return CompletableFuture.failedFuture(new RuntimeException(response.body()));
             }
-        } catch (Exception e) {
-            throw new SubscriptionException("Error creating subscription: " + e.getMessage(), e);
-        }
+        });
     }
 
-    private static String getCreateSubRequestBodyJson(String session, String userId) throws Exception {
+    private static Map<String, Object> getCreateSubRequestBody(String session, String userId) throws Exception {
         Map<String, Object> requestBody = new HashMap<>();
         requestBody.put("changeType", "updated");
         requestBody.put("resource", "/communications/presences/" + userId);
         requestBody.put("notificationUrl", oauthProps.getProperty("subUrl"));
         requestBody.put("lifecycleNotificationUrl", oauthProps.getProperty("lifecycleUrl"));
         requestBody.put("includeResourceData", true);
-        requestBody.put("expirationDateTime", ZonedDateTime.now(ZoneOffset.UTC).plusHours(1).toString());
+        requestBody.put("expirationDateTime", ZonedDateTime.now(ZoneOffset.UTC).plus(SUBSCRIPTION_LIFETIME).toString());
         requestBody.put("encryptionCertificate",
                 CertificateUtil.getBase64EncodedCertificate());
         requestBody.put("encryptionCertificateId", "nano");
         requestBody.put("clientState", session);
+        return requestBody;
+    }
 
-        ObjectMapper objectMapper = new ObjectMapper();
-        return objectMapper.writeValueAsString(requestBody);
+    /**
+     * Deletes a subscription in Graph: the one whose id is stored, or else the
+     * one this account holds with the same client state. Other subscriptions
+     * of the account, such as other users' channels in daemon mode, are never
+     * touched.
+     *
+     * @param subscription the subscription to delete
+     * @return a future completed with whether a subscription was deleted
+     */
+    private CompletableFuture<Boolean> deleteSubscriptionAsync(PresenceSubscription subscription) {
+        String storedId = subscription.subscriptionId();
+        CompletableFuture<Boolean> deleted = storedId == null || storedId.isBlank()
+                ? CompletableFuture.completedFuture(false)
+                : deleteSubscriptionAsync(storedId);
+        return deleted.thenCompose(done -> done ? CompletableFuture.completedFuture(true)
+                : findSubscriptionIdAsync(subscription.clientState()).thenCompose(id ->
+                        id == null || id.equals(storedId) ? CompletableFuture.completedFuture(false)
+                                : deleteSubscriptionAsync(id)));
     }
 
-    private static void deleteSubscription(String id) throws IOException, InterruptedException {
-        try (HttpClient client = HttpClient.newHttpClient()) {
-            if (id != null && !id.isBlank()) {
-                HttpRequest subscriptionRequest = HttpRequest.newBuilder()
-                        .uri(URI.create(GRAPH_BASE_URL + "/subscriptions/" + id))
-                        .header("Authorization", "Bearer " + accessToken)
-                        .header("Accept", "application/json")
-                        .header("Content-Type", "application/json")
-                        .DELETE()
-                        .build();
-                HttpResponse<String> response = client.send(subscriptionRequest, HttpResponse.BodyHandlers.ofString());
-                if (response.statusCode() > 300) {
-                    System.err.println(response.body());
-                    throw new RuntimeException("Could not delete subscription.");
-                }
-            } else {
-                deleteSubscription(getSubscriptions()[0]);
+    /**
+     * @return a future completed with true once deleted, or false if Graph has no such subscription
+     */
+    private CompletableFuture<Boolean> deleteSubscriptionAsync(String id) {
+        return batcher.submit(new GraphBatcher.Request("DELETE", "/subscriptions/" + id, null)).thenApply(response -> {
+            if (response.status() == 404) {
+                return false;
+            } else if (response.status() > 300) {
+                System.err.println(response.body());
+                throw new RuntimeException("Could not delete subscription.");
             }
-        }
+            return true;
+        });
     }
 
-    private static String[] getSubscriptions() {
-        HttpResponse<String> response;
-        try (HttpClient client = HttpClient.newHttpClient()) {
-
-            HttpRequest subscriptionRequest = HttpRequest.newBuilder()
-                    .uri(URI.create(GRAPH_BASE_URL + "/subscriptions"))
-                    .header("Authorization", "Bearer " + accessToken)
-                    .header("Accept", "application/json")
-                    .GET()
-                    .build();
-
-            response = client.send(subscriptionRequest, HttpResponse.BodyHandlers.ofString());
-        } catch (IOException | InterruptedException e) {
-            throw new RuntimeException("Exception when fetching subscriptions: " + e.getMessage(), e);
+    /**
+     * Looks up the id of this account's subscription with a client state.
+     *
+     * @return a future completed with the id, or null if there is none
+     */
+    private CompletableFuture<String> findSubscriptionIdAsync(String clientState) {
+        if (clientState == null) {
+            return CompletableFuture.completedFuture(null);
         }
+        HttpRequest subscriptionRequest = GraphTransport.request("/subscriptions", tokens.accessToken())
+                .GET()
+                .build();
+        return GraphTransport.send(subscriptionRequest)
+                .thenApply(response -> findSubscriptionId(response, clientState));
+    }
 
+    private static String findSubscriptionId(HttpResponse<String> response, String clientState) {
         if (response.statusCode() >= 300) {
             System.err.println("Error: " + response.statusCode());
             System.err.println(response.body());
@@ -210,18 +376,17 @@ public class Graph {
             throw new RuntimeException("Failed to parse response body: " + e.getMessage(), e);
         }
         JSONArray subscriptions = (JSONArray) responseJson.get("value");
-        List<String> subscriptionIds = new ArrayList<>();
 
         for (Object subObj : subscriptions) {
-            if (subObj instanceof JSONObject sub) {
+            if (subObj instanceof JSONObject sub && clientState.equals(sub.getAsString("clientState"))) {
                 Object idObj = sub.get("id");
                 if (idObj != null) {
-                    subscriptionIds.add(idObj.toString());
+                    return idObj.toString();
                 }
             }
         }
 
-        return subscriptionIds.toArray(String[]::new);
+        return null;
     }
 
 
@@ -231,63 +396,121 @@ public class Graph {
      * @throws SubscriptionException if there is an error during the update process
      */
     static void updateSubscription() throws SubscriptionException {
-        String id = subscriptionProps.getProperty("subscriptionId");
-        try (HttpClient client = HttpClient.newHttpClient()) {
-            try {
-                HttpRequest subscriptionRequest = HttpRequest.newBuilder()
-                        .uri(URI.create(GRAPH_BASE_URL + "/subscriptions/" + id))
-                        .header("Authorization", "Bearer " + accessToken)
-                        .header("Accept", "application/json")
-                        .header("Content-Type", "application/json")
-                        .method("PATCH",
-                                HttpRequest.BodyPublishers.ofString(String.format("{ \"expirationDateTime\": \"%s\" }",
-                                        ZonedDateTime.now(ZoneOffset.UTC).plusHours(1))))
-                        .build();
-                HttpResponse<String> response = client.send(subscriptionRequest, HttpResponse.BodyHandlers.ofString());
-                if (response.statusCode() < 300) {
-                    System.out.println("Reauthorization succeeded!");
+        await(updateSubscriptionAsync(), "Exception while updating subscription: ");
+    }
+
+    /**
+     * Updates the current subscription's expiration time without blocking the
+     * caller.
+     *
+     * @return a future completed once the new expiration is stored
+     */
+    static CompletableFuture<Void> updateSubscriptionAsync() {
+        return primary.updateSubscriptionAsync(primarySubscription);
+    }
+
+    /**
+     * Updates a subscription's expiration time without blocking the caller.
+     * Renewals made by this account within a short window are sent in one
+     * {@code $batch}.
+     *
+     * @param subscription the subscription to extend
+     * @return a future completed once the new expiration is stored
+     */
+    CompletableFuture<Void> updateSubscriptionAsync(PresenceSubscription subscription) {
+        String id = subscription.subscriptionId();
+        String token = tokens.accessToken();
+        Map<String, Object> requestBody = Map.of("expirationDateTime",
+                ZonedDateTime.now(ZoneOffset.UTC).plus(SUBSCRIPTION_LIFETIME).toString());
+        return batcher.submit(new GraphBatcher.Request("PATCH", "/subscriptions/" + id, requestBody)).thenCompose(response -> {
+            if (response.status() < 300) {
+                System.out.println("Reauthorization succeeded!");
+                try {
                     String expiration = ((JSONObject) JSONUtils.parseJSON(response.body()))
                             .getAsString("expirationDateTime");
-                    subscriptionProps.setProperty("expirationDateTime", expiration);
-                    subscriptionProps.store(new FileOutputStream(SUBSCRIPTION_PROPS_PATH), null);
-                } else if (response.statusCode() == 401) {
-                    System.out.println("Token expired");
-                    getNewToken();
-                    updateSubscription();
-                } else {
-                    System.out.println(response.body());
-                    throw new RuntimeException("Reauthorization failed with status" + response.statusCode());
+                    subscription.set("expirationDateTime", expiration);
+                    subscription.store();
+                } catch (Exception e) {
+                    return CompletableFuture.failedFuture(e);
                 }
-            } catch (Exception e) {
-                throw new SubscriptionException("Exception while updating subscription: " + e.getMessage(), e);
+                return CompletableFuture.completedFuture(null);
+            } else if (response.status() == 401) {
+                System.out.println("Token expired");
+                return tokens.refreshAfterUnauthorized(token)
+                        .thenCompose(_ -> updateSubscriptionAsync(subscription));
+            } else {
+                System.out.println(response.body());
+                return CompletableFuture.failedFuture(
+                        new RuntimeException("Reauthorization failed with status" + response.status()));
             }
-        }
+        });
     }
 
     /**
-     * Attempts to silently acquire a new access token.
+     * Reads the current presence of several users in one call to
+     * {@code getPresencesByUserId}, which accepts up to 650 ids.
+     *
+     * @param userIds object ids of the users to read
+     * @return a future completed with each user's presence, keyed by user id
      */
-    static void getNewToken() {
-        final String[] scopes = oauthProps.getProperty("graphUserScopes").split(",");
-        try {
-            SilentParameters parameters = SilentParameters.builder(new HashSet<>(Arrays.asList(scopes)))
-                    .account(account)
-                    .build();
-
-            IAuthenticationResult result = app.acquireTokenSilently(parameters).join();
-            accessToken = result.accessToken();
-        } catch (Exception e) {
-            System.out.println("Silent token acquisition failed: " + e.getMessage());
+    CompletableFuture<Map<String, Presence>> getPresencesAsync(Collection<String> userIds) {
+        String token = tokens.accessToken();
+        String requestBody = new JSONObject(Map.of("ids", new ArrayList<>(userIds))).toJSONString();
+        HttpRequest presenceRequest = GraphTransport.request("/communications/getPresencesByUserId", token)
+                .POST(HttpRequest.BodyPublishers.ofString(requestBody))
+                .build();
+        return GraphTransport.send(presenceRequest).thenCompose(response -> {
+            if (response.statusCode() == 401) {
+                return tokens.refreshAfterUnauthorized(token).thenCompose(_ -> getPresencesAsync(userIds));
+            } else if (response.statusCode() >= 300) {
+                return CompletableFuture.failedFuture(
+                        new RuntimeException("Presence request failed with status " + response.statusCode()));
+            }
+            Map<String, Presence> presences = new HashMap<>();
             try {
-                // Fallback to interactive login if silent acquisition fails
-                IAuthenticationResult result = requestUserLogin(scopes);
-                accessToken = result.accessToken();
-                account = result.account();
-            } catch (Exception ex) {
-                throw new RuntimeException("Failed to acquire new token interactively: " + ex.getMessage(), ex);
+                JSONArray value = (JSONArray) ((JSONObject) JSONUtils.parseJSON(response.body())).get("value");
+                for (Object item : value) {
+                    JSONObject presence = (JSONObject) item;
+                    Presence polled = new Presence(presence.getAsString("availability"), presence.getAsString("activity"));
+                    polled.userId = presence.getAsString("id");
+                    polled.sequenceNumber = presence.getAsString("sequenceNumber");
+                    presences.put(polled.userId, polled);
+                }
+            } catch (Exception e) {
+                return CompletableFuture.failedFuture(e);
             }
-        }
+            return CompletableFuture.completedFuture(presences);
+        });
+    }
 
+    /**
+     * Starts polling the primary subscription's user whenever Pusher is
+     * disconnected or the subscription has lapsed.
+     *
+     * @param handler   receives polled presence changes
+     * @param connected reports whether Pusher is connected
+     * @return the running poller
+     */
+    static PresencePoller startPresencePoller(StatusChangeHandler handler, BooleanSupplier connected) {
+        PresenceSubscription subscription = primarySubscription;
+        PresencePoller poller = new PresencePoller(primary,
+                () -> connected.getAsBoolean() && subscription.isActive());
+        poller.watch(subscription.userId(), handler);
+        poller.start();
+        return poller;
+    }
+
+    /**
+     * Waits for an asynchronous Graph call, unwrapping its failure into a
+     * {@link SubscriptionException}.
+     */
+    private static void await(CompletableFuture<Void> future, String errorPrefix) throws SubscriptionException {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            throw new SubscriptionException(errorPrefix + cause.getMessage(), cause);
+        }
     }
 
     /**
@@ -295,32 +518,53 @@ public class Graph {
      *
      * @throws SubscriptionException if there is an error during subscription management
      */
-    public static synchronized void ensureActiveSubscription() throws SubscriptionException {
-        buildSubscriptionReader();
-        String subId = subscriptionProps.getProperty("subscriptionId");
-        String expStr = subscriptionProps.getProperty("expirationDateTime");
-        String userId = subscriptionProps.getProperty("userId");
-        String session = subscriptionProps.getProperty("clientState");
-        boolean needsNew = false;
-
-        if (expStr == null || accessToken == null || subId == null) {
-            needsNew = true;
-        } else {
-            try {
-                ZonedDateTime exp = ZonedDateTime.parse(expStr);
-                if (ZonedDateTime.now(ZoneOffset.UTC).isAfter(exp.minusMinutes(5))) {
-                    needsNew = true;
-                }
-            } catch (Exception e) {
-                needsNew = true;
+    public static void ensureActiveSubscription() throws SubscriptionException {
+        await(ensureActiveSubscriptionAsync(), "Error ensuring active subscription: ");
+    }
+
+    /**
+     * Ensures there is an active subscription without blocking the caller.
+     * Concurrent callers share the same in-flight check.
+     *
+     * @return a future completed once the subscription is active
+     */
+    public static CompletableFuture<Void> ensureActiveSubscriptionAsync() {
+        return primary.ensureActiveSubscriptionAsync(primarySubscription);
+    }
+
+    /**
+     * Ensures a subscription is active, creating it again if it is missing or
+     * about to expire. Concurrent callers share the same in-flight check.
+     *
+     * @param subscription the subscription to check
+     * @return a future completed once the subscription is active
+     */
+    CompletableFuture<Void> ensureActiveSubscriptionAsync(PresenceSubscription subscription) {
+        return ensureActiveSubscriptionAsync(subscription, EXPIRY_MARGIN);
+    }
+
+    /**
+     * Ensures a subscription is active, renewing it if it expires no sooner
+     * than {@code margin} from now and creating it again otherwise. Scheduled
+     * renewals pass zero, so they renew any subscription that has not expired
+     * yet however short the lead time is.
+     */
+    private CompletableFuture<Void> ensureActiveSubscriptionAsync(PresenceSubscription subscription, Duration margin) {
+        synchronized (subscription) {
+            if (subscription.pendingEnsure != null && !subscription.pendingEnsure.isDone()) {
+                return subscription.pendingEnsure;
             }
-        }
+            ZonedDateTime exp = subscription.expiration();
+            boolean needsNew = exp == null || tokens.accessToken() == null || subscription.subscriptionId() == null
+                    || ZonedDateTime.now(ZoneOffset.UTC).isAfter(exp.minus(margin));
 
-        if (needsNew) {
-            System.out.println("Subscription missing or expired. Creating new subscription...");
-            createSubscription(session, userId);
-        } else {
-            updateSubscription();
+            if (needsNew) {
+                System.out.println("Subscription missing or expired. Creating new subscription...");
+                subscription.pendingEnsure = createSubscriptionAsync(subscription);
+            } else {
+                subscription.pendingEnsure = updateSubscriptionAsync(subscription);
+            }
+            return subscription.pendingEnsure;
         }
     }
 }
@@ -0,0 +1,269 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nimbusds.oauth2.sdk.util.JSONUtils;
+import net.minidev.json.JSONArray;
+import net.minidev.json.JSONObject;
+
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Groups Graph requests made by one account into JSON {@code $batch} calls of
+ * up to 20 requests. A request made while nothing else is queued or in flight
+ * is sent right away; requests arriving while one is in flight wait a short
+ * linger window and share a round trip. Items that come back throttled (429) or unavailable are retried
+ * on their own after the delay Graph asked for; every other item completes with
+ * its own status.
+ */
+final class GraphBatcher {
+
+    static final int MAX_BATCH_SIZE = 20;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final Duration DEFAULT_RETRY_DELAY = Duration.ofSeconds(2);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * One request inside a batch.
+     *
+     * @param method HTTP method
+     * @param url    path relative to the v1.0 endpoint, e.g. {@code /subscriptions}
+     * @param body   JSON body as a map, or null for none
+     */
+    record Request(String method, String url, Map<String, Object> body) {
+    }
+
+    /**
+     * The answer to one request inside a batch.
+     *
+     * @param status HTTP status of the individual request
+     * @param body   JSON body of the individual response, or null
+     */
+    record Response(int status, String body) {
+    }
+
+    private record Pending(Request request, CompletableFuture<Response> result) {
+    }
+
+    private final TokenManager tokens;
+    private final Duration linger;
+    private final List<Pending> queued = new ArrayList<>();
+    private boolean flushScheduled;
+    // Batches handed to send() and not yet answered; every send is counted first
+    private int inFlight;
+
+    /**
+     * @param tokens supplies the account's access token
+     * @param linger how long to wait for more requests before sending a batch
+     *               while another batch is in flight
+     */
+    GraphBatcher(TokenManager tokens, Duration linger) {
+        this.tokens = tokens;
+        this.linger = linger;
+    }
+
+    /**
+     * Queues a request for the next batch.
+     *
+     * @param request the request
+     * @return a future completed with the request's own response
+     */
+    CompletableFuture<Response> submit(Request request) {
+        Pending pending = new Pending(request, new CompletableFuture<>());
+        List<Pending> ready = null;
+        synchronized (this) {
+            queued.add(pending);
+            if (queued.size() >= MAX_BATCH_SIZE || (queued.size() == 1 && inFlight == 0 && !flushScheduled)) {
+                ready = drain();
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                CompletableFuture.delayedExecutor(linger.toMillis(), TimeUnit.MILLISECONDS).execute(this::flush);
+            }
+        }
+        if (ready != null) {
+            send(ready, 1);
+        }
+        return pending.result();
+    }
+
+    private void flush() {
+        List<Pending> batch;
+        synchronized (this) {
+            flushScheduled = false;
+            batch = drain();
+        }
+        if (!batch.isEmpty()) {
+            send(batch, 1);
+        }
+    }
+
+    private List<Pending> drain() {
+        List<Pending> batch = new ArrayList<>(queued.subList(0, Math.min(queued.size(), MAX_BATCH_SIZE)));
+        queued.subList(0, batch.size()).clear();
+        if (!batch.isEmpty()) {
+            inFlight++;
+        }
+        if (!queued.isEmpty() && !flushScheduled) {
+            flushScheduled = true;
+            CompletableFuture.delayedExecutor(0, TimeUnit.MILLISECONDS).execute(this::flush);
+        }
+        return batch;
+    }
+
+    /**
+     * Sends a batch again after a refresh or a retry delay.
+     */
+    private void resend(List<Pending> batch, int attempt) {
+        synchronized (this) {
+            inFlight++;
+        }
+        send(batch, attempt);
+    }
+
+    private synchronized void answered() {
+        inFlight--;
+    }
+
+    private void send(List<Pending> batch, int attempt) {
+        String token = tokens.accessToken();
+        HttpRequest request;
+        try {
+            request = GraphTransport.request("/$batch", token)
+                    .POST(HttpRequest.BodyPublishers.ofString(toJson(batch), StandardCharsets.UTF_8))
+                    .build();
+        } catch (Exception e) {
+            answered();
+            batch.forEach(p -> p.result().completeExceptionally(e));
+            return;
+        }
+        GraphTransport.send(request).whenComplete((response, error) -> {
+            answered();
+            if (error != null) {
+                batch.forEach(p -> p.result().completeExceptionally(error));
+            } else if (response.statusCode() == 401 && attempt < MAX_ATTEMPTS) {
+                tokens.refreshAfterUnauthorized(token).whenComplete((_, refreshError) -> {
+                    if (refreshError != null) {
+                        batch.forEach(p -> p.result().completeExceptionally(refreshError));
+                    } else {
+                        resend(batch, attempt + 1);
+                    }
+                });
+            } else if (response.statusCode() >= 300) {
+                RuntimeException failure = new RuntimeException(
+                        "Batch failed with status " + response.statusCode() + ": " + response.body());
+                batch.forEach(p -> p.result().completeExceptionally(failure));
+            } else {
+                handleResponses(batch, response.body(), attempt);
+            }
+        });
+    }
+
+    /**
+     * Completes each request from its item in the batch response. Whatever
+     * the body looks like, every request ends up either completed or queued
+     * for a retry, so no caller is left waiting on a malformed response.
+     */
+    private void handleResponses(List<Pending> batch, String body, int attempt) {
+        List<Pending> retry = new ArrayList<>();
+        Duration retryDelay = Duration.ZERO;
+        Exception failure = null;
+        try {
+            if (!(((JSONObject) JSONUtils.parseJSON(body)).get("responses") instanceof JSONArray responses)) {
+                throw new RuntimeException("Batch response has no responses: " + body);
+            }
+            for (Object item : responses) {
+                if (!(item instanceof JSONObject itemResponse)
+                        || !(itemResponse.get("status") instanceof Number status)) {
+                    continue;
+                }
+                Pending pending = pendingFor(batch, itemResponse.get("id"));
+                if (pending == null || pending.result().isDone() || retry.contains(pending)) {
+                    continue;
+                }
+                if (isRetryable(status.intValue()) && attempt < MAX_ATTEMPTS) {
+                    retry.add(pending);
+                    Duration delay = retryAfter(itemResponse, attempt);
+                    if (delay.compareTo(retryDelay) > 0) {
+                        retryDelay = delay;
+                    }
+                } else {
+                    Object itemBody = itemResponse.get("body");
+                    String bodyJson = itemBody instanceof JSONObject json ? json.toJSONString()
+                            : itemBody == null ? null : itemBody.toString();
+                    pending.result().complete(new Response(status.intValue(), bodyJson));
+                }
+            }
+        } catch (Exception e) {
+            failure = e;
+        } finally {
+            for (Pending pending : batch) {
+                if (!pending.result().isDone() && !retry.contains(pending)) {
+                    pending.result().completeExceptionally(failure != null ? failure
+                            : new RuntimeException("No response in batch for " + pending.request().url()));
+                }
+            }
+        }
+        if (!retry.isEmpty()) {
+            System.out.println("Retrying " + retry.size() + " batched request(s) in " + retryDelay.toSeconds() + " s");
+            CompletableFuture.delayedExecutor(retryDelay.toMillis(), TimeUnit.MILLISECONDS)
+                    .execute(() -> resend(retry, attempt + 1));
+        }
+    }
+
+    /**
+     * Matches an item's id back to its request.
+     *
+     * @return the request, or null if the id names none in this batch
+     */
+    private static Pending pendingFor(List<Pending> batch, Object id) {
+        try {
+            int index = Integer.parseInt(String.valueOf(id));
+            return index >= 0 && index < batch.size() ? batch.get(index) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static boolean isRetryable(int status) {
+        return status == 429 || status == 503 || status == 504;
+    }
+
+    /**
+     * Uses the item's Retry-After header, or exponential backoff without one.
+     */
+    private static Duration retryAfter(JSONObject itemResponse, int attempt) {
+        if (itemResponse.get("headers") instanceof JSONObject headers) {
+            for (Map.Entry<String, Object> header : headers.entrySet()) {
+                if (header.getKey().equalsIgnoreCase("Retry-After")) {
+                    try {
+                        return Duration.ofSeconds(Long.parseLong(header.getValue().toString().trim()));
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+        }
+        return DEFAULT_RETRY_DELAY.multipliedBy(1L << Math.min(attempt - 1, 6));
+    }
+
+    private static String toJson(List<Pending> batch) throws Exception {
+        List<Map<String, Object>> requests = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            Request request = batch.get(i).request();
+            Map<String, Object> item = new LinkedHashMap<>();
+            // Ids are positions in this batch so responses can be matched back
+            item.put("id", Integer.toString(i));
+            item.put("method", request.method());
+            item.put("url", request.url());
+            if (request.body() != null) {
+                item.put("headers", Map.of("Content-Type", "application/json"));
+                item.put("body", request.body());
+            }
+            requests.add(item);
+        }
+        return MAPPER.writeValueAsString(Map.of("requests", requests));
+    }
+}
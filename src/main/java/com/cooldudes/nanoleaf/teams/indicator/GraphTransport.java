@@ -0,0 +1,53 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Single, long-lived HTTP/2 connection pool shared by every call to Microsoft
+ * Graph, so renewals and retries reuse the existing TLS session.
+ */
+final class GraphTransport {
+
+    // Overridable so the app can be pointed at a local stand-in for Graph
+    static final String GRAPH_BASE_URL = System.getProperty("graph.baseUrl", "https://graph.microsoft.com/v1.0");
+    private static final HttpClient CLIENT = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(Duration.ofSeconds(10))
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+
+    private GraphTransport() {
+    }
+
+    /**
+     * Starts a request against a Graph path with the standard JSON headers.
+     *
+     * @param path        path relative to the v1.0 endpoint, e.g. {@code /subscriptions}
+     * @param accessToken bearer token to authorize the request with
+     * @return a request builder to add the method and body to
+     */
+    static HttpRequest.Builder request(String path, String accessToken) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create(GRAPH_BASE_URL + path))
+                .timeout(Duration.ofSeconds(30))
+                .header("Authorization", "Bearer " + accessToken)
+                .header("Accept", "application/json")
+                .header("Content-Type", "application/json");
+    }
+
+    /**
+     * Sends a request without blocking the calling thread.
+     *
+     * @param request the request to send
+     * @return a future completed with the response, body decoded as UTF-8
+     */
+    static CompletableFuture<HttpResponse<String>> send(HttpRequest request) {
+        return CLIENT.sendAsync(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,325 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Single-pass reader for the fields of one JSON object. Field names are
+ * compared in place, values that are not needed are skipped without being
+ * copied, and Base64 values are decoded straight from the source text. No
+ * intermediate tree is built.
+ * <pre>
+ * JsonScanner scanner = new JsonScanner(json);
+ * scanner.beginObject();
+ * while (scanner.nextField()) {
+ *     if (scanner.fieldIs("data")) data = scanner.base64Value();
+ *     else scanner.skipValue();
+ * }
+ * </pre>
+ */
+final class JsonScanner {
+
+    private static final int[] BASE64 = new int[128];
+
+    static {
+        Arrays.fill(BASE64, -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64[alphabet.charAt(i)] = i;
+        }
+    }
+
+    private final CharSequence in;
+    private int pos;
+    private int nameStart;
+    private int nameEnd;
+
+    /**
+     * @param in the JSON text
+     */
+    JsonScanner(CharSequence in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads JSON from bytes without decoding them first. Structural characters
+     * are ASCII in UTF-8, so the object can be walked byte by byte; only string
+     * values made of ASCII characters are returned intact.
+     *
+     * @param json the JSON text as UTF-8 bytes
+     * @return a scanner over the bytes
+     */
+    static JsonScanner ofAscii(byte[] json) {
+        return new JsonScanner(new AsciiView(json, 0, json.length));
+    }
+
+    /**
+     * Positions the scanner inside the object starting at the current position.
+     *
+     * @throws IllegalArgumentException if no object starts here
+     */
+    void beginObject() {
+        skipWhitespace();
+        expect('{');
+    }
+
+    /**
+     * @return whether the current value is an object
+     */
+    boolean atObject() {
+        return peek() == '{';
+    }
+
+    /**
+     * Positions the scanner inside the array starting at the current position.
+     *
+     * @return false, with the value skipped, if no array starts here
+     */
+    boolean beginArray() {
+        if (peek() != '[') {
+            skipValue();
+            return false;
+        }
+        pos++;
+        return true;
+    }
+
+    /**
+     * Moves to the next element of the current array.
+     *
+     * @return false once the array's closing bracket is reached
+     */
+    boolean nextElement() {
+        skipWhitespace();
+        if (peek() == ',') {
+            pos++;
+            skipWhitespace();
+        }
+        if (peek() == ']') {
+            pos++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Moves to the next field of the current object.
+     *
+     * @return false once the object's closing brace is reached
+     * @throws IllegalArgumentException if the JSON is malformed
+     */
+    boolean nextField() {
+        skipWhitespace();
+        if (peek() == ',') {
+            pos++;
+            skipWhitespace();
+        }
+        if (peek() == '}') {
+            pos++;
+            return false;
+        }
+        expect('"');
+        nameStart = pos;
+        nameEnd = stringEnd(pos);
+        pos = nameEnd + 1;
+        skipWhitespace();
+        expect(':');
+        skipWhitespace();
+        return true;
+    }
+
+    /**
+     * @param name a field name without escapes
+     * @return whether the current field has this name
+     */
+    boolean fieldIs(String name) {
+        if (nameEnd - nameStart != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (in.charAt(nameStart + i) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the current field's value as a string.
+     *
+     * @return the unescaped string, or null if the value is not a string
+     */
+    String stringValue() {
+        if (peek() != '"') {
+            skipValue();
+            return null;
+        }
+        int start = pos + 1;
+        int end = stringEnd(start);
+        pos = end + 1;
+        StringBuilder out = null;
+        for (int i = start; i < end; i++) {
+            char c = in.charAt(i);
+            if (c == '\\') {
+                if (out == null) {
+                    out = new StringBuilder(end - start).append(in, start, i);
+                }
+                c = in.charAt(++i);
+                switch (c) {
+                    case 'n' -> out.append('\n');
+                    case 't' -> out.append('\t');
+                    case 'r' -> out.append('\r');
+                    case 'b' -> out.append('\b');
+                    case 'f' -> out.append('\f');
+                    case 'u' -> {
+                        if (i + 5 > end) {
+                            throw new IllegalArgumentException("Truncated \\u escape at position " + i);
+                        }
+                        out.append((char) Integer.parseInt(in, i + 1, i + 5, 16));
+                        i += 4;
+                    }
+                    default -> out.append(c);
+                }
+            } else if (out != null) {
+                out.append(c);
+            }
+        }
+        return out != null ? out.toString() : in.subSequence(start, end).toString();
+    }
+
+    /**
+     * Decodes the current field's Base64 string value without copying it.
+     *
+     * @return the decoded bytes, or null if the value is not a string
+     * @throws IllegalArgumentException if the value is not valid Base64
+     */
+    byte[] base64Value() {
+        if (peek() != '"') {
+            skipValue();
+            return null;
+        }
+        int start = pos + 1;
+        int end = stringEnd(start);
+        pos = end + 1;
+        int symbols = 0;
+        for (int i = start; i < end; i++) {
+            char c = in.charAt(i);
+            if (c == '=') {
+                break;
+            }
+            // The only escape Base64 can need in JSON is \/
+            if (c != '\\') {
+                symbols++;
+            }
+        }
+        if (symbols % 4 == 1) {
+            throw new IllegalArgumentException("Truncated Base64 value at position " + start);
+        }
+        byte[] out = new byte[symbols * 3 / 4];
+        int buffer = 0;
+        int bits = 0;
+        int o = 0;
+        for (int i = start; o < out.length; i++) {
+            char c = in.charAt(i);
+            if (c == '\\') {
+                continue;
+            }
+            int value = c < 128 ? BASE64[c] : -1;
+            if (value < 0) {
+                throw new IllegalArgumentException("Invalid Base64 character at position " + i);
+            }
+            buffer = (buffer << 6) | value;
+            bits += 6;
+            if (bits >= 8) {
+                bits -= 8;
+                out[o++] = (byte) (buffer >> bits);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Skips the current field's value, including nested objects and arrays.
+     *
+     * @throws IllegalArgumentException if the value ends before it is closed
+     */
+    void skipValue() {
+        char c = peek();
+        if (c == '"') {
+            pos = stringEnd(pos + 1) + 1;
+        } else if (c == '{' || c == '[') {
+            int depth = 0;
+            do {
+                c = peek();
+                if (c == '"') {
+                    pos = stringEnd(pos + 1);
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+                pos++;
+            } while (depth > 0);
+        } else {
+            while (pos < in.length() && ",}] \t\r\n".indexOf(in.charAt(pos)) < 0) {
+                pos++;
+            }
+        }
+    }
+
+    /**
+     * @return the index of the quote closing the string whose content starts at {@code from}
+     */
+    private int stringEnd(int from) {
+        for (int i = from; i < in.length(); i++) {
+            char c = in.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '"') {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unterminated string at position " + from);
+    }
+
+    private char peek() {
+        if (pos >= in.length()) {
+            throw new IllegalArgumentException("Unexpected end of JSON");
+        }
+        return in.charAt(pos);
+    }
+
+    private void expect(char c) {
+        if (peek() != c) {
+            throw new IllegalArgumentException("Expected '" + c + "' at position " + pos);
+        }
+        pos++;
+    }
+
+    private void skipWhitespace() {
+        while (pos < in.length() && Character.isWhitespace(in.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    /**
+     * Bytes read as characters one to one.
+     */
+    private record AsciiView(byte[] bytes, int offset, int length) implements CharSequence {
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes[offset + index] & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new AsciiView(bytes, offset + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide latency histograms and counters, rendered in Prometheus text
+ * format by {@link MetricsServer}.
+ */
+public final class Metrics {
+
+    static final LatencyHistogram DECRYPT = new LatencyHistogram("nanoleaf_event_decrypt_seconds",
+            "Time from Pusher receipt until the event is decrypted.");
+    static final LatencyHistogram QUEUE = new LatencyHistogram("nanoleaf_event_queue_seconds",
+            "Time from decryption until the device handler starts.");
+    static final LatencyHistogram DEVICE_WRITE = new LatencyHistogram("nanoleaf_device_write_seconds",
+            "Time from handler start until the device acknowledged the write.");
+    static final LatencyHistogram END_TO_END = new LatencyHistogram("nanoleaf_event_end_to_end_seconds",
+            "Time from Pusher receipt until every device has handled the event.");
+
+    private static final LongAdder EVENTS_RECEIVED = new LongAdder();
+    private static final LongAdder RENEWALS_SUCCEEDED = new LongAdder();
+    private static final LongAdder RENEWALS_FAILED = new LongAdder();
+    private static final LongAdder TOKEN_REFRESHES_SUCCEEDED = new LongAdder();
+    private static final LongAdder TOKEN_REFRESHES_FAILED = new LongAdder();
+    private static final LongAdder DEVICE_ERRORS = new LongAdder();
+
+    private Metrics() {
+    }
+
+    /**
+     * Starts tracing an event that just arrived.
+     *
+     * @return the trace to stamp as the event moves on
+     */
+    static EventTrace eventReceived() {
+        EVENTS_RECEIVED.increment();
+        return new EventTrace(System.nanoTime());
+    }
+
+    static void eventDecrypted(EventTrace trace) {
+        trace.decryptedNanos = System.nanoTime();
+        DECRYPT.record(trace.decryptedNanos - trace.receivedNanos);
+    }
+
+    static void handlerStarted(EventTrace trace) {
+        if (trace == null) {
+            return;
+        }
+        trace.handlerStartNanos = System.nanoTime();
+        if (trace.decryptedNanos != 0) {
+            QUEUE.record(trace.handlerStartNanos - trace.decryptedNanos);
+        }
+    }
+
+    /**
+     * Records a write one device acknowledged.
+     *
+     * @param trace          the event's trace, or null if the write was not caused by an event
+     * @param writeStartNanos when the write request was sent
+     */
+    static void deviceAcknowledged(EventTrace trace, long writeStartNanos) {
+        long start = trace != null && trace.handlerStartNanos != 0 ? trace.handlerStartNanos : writeStartNanos;
+        DEVICE_WRITE.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Records that the handler has finished with an event, whether or not any
+     * device needed a write. Called once per event, however many devices
+     * there are.
+     *
+     * @param trace the event's trace, or null if it was not traced
+     */
+    static void eventHandled(EventTrace trace) {
+        if (trace != null) {
+            END_TO_END.record(System.nanoTime() - trace.receivedNanos);
+        }
+    }
+
+    static void renewal(boolean succeeded) {
+        (succeeded ? RENEWALS_SUCCEEDED : RENEWALS_FAILED).increment();
+    }
+
+    static void tokenRefresh(boolean succeeded) {
+        (succeeded ? TOKEN_REFRESHES_SUCCEEDED : TOKEN_REFRESHES_FAILED).increment();
+    }
+
+    static void deviceError() {
+        DEVICE_ERRORS.increment();
+    }
+
+    /**
+     * @return every metric in Prometheus text exposition format
+     */
+    public static String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        DECRYPT.writeTo(out);
+        QUEUE.writeTo(out);
+        DEVICE_WRITE.writeTo(out);
+        END_TO_END.writeTo(out);
+        counter(out, "nanoleaf_events_received_total", "Presence events received.", null, EVENTS_RECEIVED);
+        out.append("# HELP nanoleaf_subscription_renewals_total Subscription renewal attempts.\n")
+                .append("# TYPE nanoleaf_subscription_renewals_total counter\n");
+        sample(out, "nanoleaf_subscription_renewals_total", "result=\"success\"", RENEWALS_SUCCEEDED);
+        sample(out, "nanoleaf_subscription_renewals_total", "result=\"failure\"", RENEWALS_FAILED);
+        out.append("# HELP nanoleaf_token_refreshes_total Access token refreshes.\n")
+                .append("# TYPE nanoleaf_token_refreshes_total counter\n");
+        sample(out, "nanoleaf_token_refreshes_total", "result=\"success\"", TOKEN_REFRESHES_SUCCEEDED);
+        sample(out, "nanoleaf_token_refreshes_total", "result=\"failure\"", TOKEN_REFRESHES_FAILED);
+        counter(out, "nanoleaf_device_errors_total", "Device writes that failed.", null, DEVICE_ERRORS);
+        return out.toString();
+    }
+
+    private static void counter(StringBuilder out, String name, String help, String labels, LongAdder value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+        sample(out, name, labels, value);
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, LongAdder value) {
+        out.append(name);
+        if (labels != null) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value.sum()).append('\n');
+    }
+}
@@ -0,0 +1,164 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Runs many users in one process: every Graph account signs in once, every
+ * user's presence arrives on its own {@code status-changes-<clientState>}
+ * channel of a single Pusher connection, and a routing table sends each
+ * channel to that user's devices.
+ * <p>
+ * Users are listed in tenants.properties:
+ * <pre>
+ * tenants=alice,bob
+ * alice.account=ops
+ * alice.clientState=Xy12abc
+ * alice.userId=00000000-0000-0000-0000-000000000000
+ * alice.devices=192.168.1.20:TOKEN,192.168.1.21:TOKEN
+ * </pre>
+ * {@code account} names the Graph sign-in to use and may be shared between
+ * users; {@code userId} defaults to that account's own user.
+ */
+public class MultiUserDaemon {
+
+    static final String DEFAULT_TENANTS_PATH = Graph.CONFIG_DIR + "tenants.properties";
+    private static final Duration DEVICE_TIMEOUT = Duration.ofSeconds(5);
+
+    /**
+     * One user's entry in tenants.properties.
+     *
+     * @param name        tenant name, used in log output
+     * @param account     name of the Graph account to subscribe with
+     * @param clientState client state naming the user's Pusher channel
+     * @param userId      the user whose presence to watch, or null for the account's user
+     * @param devices     the user's devices as {@code ip:token}
+     */
+    record Tenant(String name, String account, String clientState, String userId, List<String> devices) {
+    }
+
+    /**
+     * Reads the routing table.
+     *
+     * @param path tenants.properties to read
+     * @return the configured users, in file order
+     * @throws IOException if the file cannot be read or an entry is incomplete
+     */
+    static List<Tenant> loadTenants(String path) throws IOException {
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(path)) {
+            props.load(in);
+        }
+        List<Tenant> tenants = new ArrayList<>();
+        for (String name : props.getProperty("tenants", "").split(",")) {
+            name = name.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            String clientState = props.getProperty(name + ".clientState");
+            String devices = props.getProperty(name + ".devices");
+            if (clientState == null || devices == null) {
+                throw new IOException("Tenant " + name + " needs clientState and devices");
+            }
+            tenants.add(new Tenant(name,
+                    props.getProperty(name + ".account", "default"),
+                    clientState,
+                    props.getProperty(name + ".userId"),
+                    Arrays.stream(devices.split(",")).map(String::trim).filter(d -> !d.isEmpty()).toList()));
+        }
+        return tenants;
+    }
+
+    /**
+     * Signs every account in, subscribes every user and blocks until shutdown.
+     *
+     * @param tenantsPath tenants.properties to read
+     * @throws Exception if the routing table or a sign-in fails
+     */
+    public static void run(String tenantsPath) throws Exception {
+        List<Tenant> tenants = loadTenants(tenantsPath);
+        if (tenants.isEmpty()) {
+            System.out.println("No tenants configured in " + tenantsPath);
+            return;
+        }
+        MetricsServer metrics = NanoleafTeamsIndicator.startMetrics();
+        NanoleafTeamsIndicator.startDiscovery();
+
+        Map<String, Graph> accounts = new HashMap<>();
+        Map<String, NanoleafShapes> devicesByIp = new HashMap<>();
+        List<NanoleafDeviceGroup> groups = new ArrayList<>();
+        List<SocketConnection.Route> routes = new ArrayList<>();
+        Map<String, List<PresenceSubscription>> subscriptionsByAccount = new HashMap<>();
+        for (Tenant tenant : tenants) {
+            Graph graph = accounts.get(tenant.account());
+            if (graph == null) {
+                graph = Graph.login(tenant.account());
+                accounts.put(tenant.account(), graph);
+            }
+            PresenceSubscription subscription = graph.openSubscription(tenant.clientState(), tenant.userId());
+            graph.track(subscription);
+            subscriptionsByAccount.computeIfAbsent(tenant.account(), _ -> new ArrayList<>()).add(subscription);
+
+            List<NanoleafShapes> devices = new ArrayList<>();
+            for (String spec : tenant.devices()) {
+                String[] parts = spec.split(":", 2);
+                if (parts.length != 2) {
+                    throw new IOException("Tenant " + tenant.name() + " has a device without a token: " + spec);
+                }
+                // Devices shared between users are controlled through one instance
+                NanoleafShapes device = devicesByIp.computeIfAbsent(parts[0], ip -> {
+                    NanoleafShapes created = new NanoleafShapes(ip, parts[1], null, null);
+                    NanoleafDiscovery.track(created);
+                    return created;
+                });
+                devices.add(device);
+            }
+            NanoleafDeviceGroup group = new NanoleafDeviceGroup(devices, DEVICE_TIMEOUT);
+            groups.add(group);
+
+            Graph account = graph;
+            routes.add(new SocketConnection.Route(tenant.clientState(), group,
+                    () -> account.ensureActiveSubscriptionAsync(subscription),
+                    () -> account.updateSubscriptionAsync(subscription)));
+            System.out.println("Routing " + tenant.name() + " to " + devices.size() + " device(s)");
+        }
+
+        NotificationSource source = NanoleafTeamsIndicator.openNotificationSource(routes);
+        // One bulk presence poller per account covers its users while push delivery is down
+        List<PresencePoller> pollers = new ArrayList<>();
+        for (Map.Entry<String, List<PresenceSubscription>> entry : subscriptionsByAccount.entrySet()) {
+            List<PresenceSubscription> subscriptions = entry.getValue();
+            PresencePoller poller = new PresencePoller(accounts.get(entry.getKey()), () -> source.isConnected()
+                    && subscriptions.stream().allMatch(PresenceSubscription::isActive));
+            for (PresenceSubscription subscription : subscriptions) {
+                poller.watch(subscription.userId(), source.publisher(subscription.clientState()));
+            }
+            poller.start();
+            source.onConnectionChange(poller::wake);
+            pollers.add(poller);
+        }
+        CountDownLatch latch = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (NanoleafDeviceGroup group : groups) {
+                try {
+                    group.powerOff();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            pollers.forEach(PresencePoller::close);
+            source.disconnect();
+            NanoleafDiscovery.stop();
+            ConfigService.stop();
+            if (metrics != null) {
+                metrics.close();
+            }
+            latch.countDown();
+        }));
+        latch.await();
+    }
+}
@@ -0,0 +1,174 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Applies one presence to several Nanoleaf controllers at once. Each device is
+ * written on its own virtual thread with its own timeout, so a slow or
+ * unplugged controller does not hold up the others.
+ */
+public class NanoleafDeviceGroup implements StatusChangeHandler {
+
+    private final List<NanoleafShapes> devices;
+    private final Duration deviceTimeout;
+    private final Map<NanoleafShapes, WriteStats> stats = new LinkedHashMap<>();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Write latency and failure counts for one device. Only presence updates
+     * the device actually received count as writes; power-offs are counted on
+     * their own, and presences the device already showed or that were held
+     * while it was unreachable are not counted at all.
+     */
+    public static class WriteStats {
+        private final LongAdder writes = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLong lastNanos = new AtomicLong();
+        private final LongAdder timeouts = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder powerOffs = new LongAdder();
+
+        void recordWrite(long nanos) {
+            writes.increment();
+            totalNanos.add(nanos);
+            lastNanos.set(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        void recordPowerOff(long nanos) {
+            powerOffs.increment();
+        }
+
+        public long writes() {
+            return writes.sum();
+        }
+
+        public Duration average() {
+            long count = writes.sum();
+            return Duration.ofNanos(count == 0 ? 0 : totalNanos.sum() / count);
+        }
+
+        public Duration max() {
+            return Duration.ofNanos(maxNanos.get());
+        }
+
+        public Duration last() {
+            return Duration.ofNanos(lastNanos.get());
+        }
+
+        public long timeouts() {
+            return timeouts.sum();
+        }
+
+        public long errors() {
+            return errors.sum();
+        }
+
+        public long powerOffs() {
+            return powerOffs.sum();
+        }
+
+        @Override
+        public String toString() {
+            return "writes=" + writes() + ", avg=" + average().toMillis() + "ms, max=" + max().toMillis() +
+                    "ms, last=" + last().toMillis() + "ms, timeouts=" + timeouts() + ", errors=" + errors() +
+                    ", powerOffs=" + powerOffs();
+        }
+    }
+
+    /**
+     * @param devices       the controllers to keep in sync
+     * @param deviceTimeout how long to wait for any one controller
+     */
+    public NanoleafDeviceGroup(List<NanoleafShapes> devices, Duration deviceTimeout) {
+        this.devices = List.copyOf(devices);
+        this.deviceTimeout = deviceTimeout;
+        for (NanoleafShapes device : this.devices) {
+            stats.put(device, new WriteStats());
+        }
+    }
+
+    /**
+     * @return the controllers in this group
+     */
+    public List<NanoleafShapes> getDevices() {
+        return devices;
+    }
+
+    /**
+     * @return write statistics per device, in group order
+     */
+    public Map<NanoleafShapes, WriteStats> getStats() {
+        return Collections.unmodifiableMap(stats);
+    }
+
+    /**
+     * Applies the presence to every device concurrently and waits until each
+     * one has finished or timed out.
+     *
+     * @param userPresence the user's current Teams presence
+     */
+    @Override
+    public void handleStatusChange(Presence userPresence) throws InterruptedException {
+        forEachDevice(device -> device.applyStatus(userPresence) == NanoleafShapes.WriteOutcome.WRITTEN,
+                WriteStats::recordWrite);
+    }
+
+    /**
+     * Turns every device off.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void powerOff() throws InterruptedException {
+        forEachDevice(device -> {
+            device.setPower(false);
+            return true;
+        }, WriteStats::recordPowerOff);
+    }
+
+    private interface DeviceAction {
+        /**
+         * @return whether the device was written to
+         */
+        boolean apply(NanoleafShapes device) throws Exception;
+    }
+
+    private void forEachDevice(DeviceAction action, ObjLongConsumer<WriteStats> record) throws InterruptedException {
+        List<Future<?>> futures = new ArrayList<>(devices.size());
+        for (NanoleafShapes device : devices) {
+            WriteStats deviceStats = stats.get(device);
+            futures.add(executor.submit(() -> {
+                long start = System.nanoTime();
+                if (action.apply(device)) {
+                    record.accept(deviceStats, System.nanoTime() - start);
+                }
+                return null;
+            }));
+        }
+        long deadline = System.nanoTime() + deviceTimeout.toNanos();
+        for (int i = 0; i < devices.size(); i++) {
+            NanoleafShapes device = devices.get(i);
+            Future<?> future = futures.get(i);
+            try {
+                future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                stats.get(device).timeouts.increment();
+                System.err.println("Device " + device.getIp() + " timed out after " + deviceTimeout.toMillis() + " ms");
+            } catch (ExecutionException e) {
+                stats.get(device).errors.increment();
+                System.err.println("Device " + device.getIp() + " failed: " + e.getCause());
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+import javax.jmdns.JmDNS;
+import javax.jmdns.ServiceEvent;
+import javax.jmdns.ServiceInfo;
+import javax.jmdns.ServiceListener;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps a live registry of the Nanoleaf controllers announced on the local
+ * network. When a tracked controller shows up at a new address, the device is
+ * repointed and nanoleaf.properties is rewritten, without any user input.
+ */
+public final class NanoleafDiscovery {
+
+    private static final Map<String, ServiceInfo> SERVICES = new ConcurrentHashMap<>();
+    private static final List<NanoleafShapes> TRACKED = new CopyOnWriteArrayList<>();
+    private static JmDNS jmdns;
+
+    private NanoleafDiscovery() {
+    }
+
+    /**
+     * Starts listening for controller announcements. Does nothing if already
+     * running.
+     *
+     * @throws IOException if the mDNS socket cannot be opened
+     */
+    public static synchronized void start() throws IOException {
+        if (jmdns != null) {
+            return;
+        }
+        jmdns = JmDNS.create(InetAddress.getLocalHost());
+        jmdns.addServiceListener(NanoleafShapes.SERVICE_TYPE, new ServiceListener() {
+            @Override
+            public void serviceAdded(ServiceEvent event) {
+                // Ask for the address; it arrives in serviceResolved
+                event.getDNS().requestServiceInfo(event.getType(), event.getName(), true);
+            }
+
+            @Override
+            public void serviceRemoved(ServiceEvent event) {
+                SERVICES.remove(event.getName());
+            }
+
+            @Override
+            public void serviceResolved(ServiceEvent event) {
+                onResolved(event.getInfo());
+            }
+        });
+    }
+
+    /**
+     * Stops listening and forgets every known controller.
+     */
+    public static synchronized void stop() {
+        if (jmdns == null) {
+            return;
+        }
+        try {
+            jmdns.close();
+        } catch (IOException e) {
+            System.err.println("Could not close mDNS: " + e.getMessage());
+        }
+        jmdns = null;
+        SERVICES.clear();
+    }
+
+    /**
+     * Follows a device's address from now on.
+     *
+     * @param device the device to keep up to date
+     */
+    public static void track(NanoleafShapes device) {
+        TRACKED.add(device);
+        for (ServiceInfo info : SERVICES.values()) {
+            match(device, info.getName(), addressOf(info));
+        }
+    }
+
+    /**
+     * @return every controller currently announced, in no particular order
+     */
+    public static ServiceInfo[] services() {
+        return SERVICES.values().toArray(ServiceInfo[]::new);
+    }
+
+    /**
+     * Looks up the current address of a controller.
+     *
+     * @param deviceName the controller's mDNS service name, may be null
+     * @return the IP address, or null if the controller is not announced
+     */
+    public static String currentAddress(String deviceName) {
+        if (deviceName == null) {
+            return null;
+        }
+        ServiceInfo info = SERVICES.get(deviceName);
+        return info == null ? null : addressOf(info);
+    }
+
+    private static void onResolved(ServiceInfo info) {
+        String address = addressOf(info);
+        if (address == null) {
+            return;
+        }
+        SERVICES.put(info.getName(), info);
+        for (NanoleafShapes device : TRACKED) {
+            match(device, info.getName(), address);
+        }
+    }
+
+    private static void match(NanoleafShapes device, String name, String address) {
+        if (address == null) {
+            return;
+        }
+        if (name.equals(device.getDeviceName())) {
+            if (!address.equals(device.getIp())) {
+                System.out.println("Nanoleaf " + name + " moved from " + device.getIp() + " to " + address);
+                device.updateAddress(address);
+            }
+        } else if (device.getDeviceName() == null && address.equals(device.getIp())) {
+            device.bindName(name);
+        }
+    }
+
+    private static String addressOf(ServiceInfo info) {
+        for (Inet4Address address : info.getInet4Addresses()) {
+            return address.getHostAddress();
+        }
+        String[] addresses = info.getHostAddresses();
+        return addresses.length > 0 ? addresses[0] : null;
+    }
+}
@@ -1,5 +1,7 @@
 package com.cooldudes.nanoleaf.teams.indicator;
 
+import java.nio.charset.StandardCharsets;
+
 public class NanoleafEffect {
     public String command;
     public String version = "2.0";
@@ -45,6 +47,15 @@ public class NanoleafEffect {
         return sb.toString();
     }
 
+    /**
+     * Serializes this effect as the body of a {@code PUT /effects} write request.
+     *
+     * @return the UTF-8 encoded {@code {"write": ...}} request body
+     */
+    public byte[] toWritePayload() {
+        return ("{\"write\": " + this + "}").getBytes(StandardCharsets.UTF_8);
+    }
+
     public static class PaletteColor {
         public int hue;
         public int saturation;
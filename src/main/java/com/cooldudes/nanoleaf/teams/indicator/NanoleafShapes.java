@@ -9,8 +9,10 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Properties;
 import java.util.Scanner;
 
 /**
@@ -18,13 +20,28 @@ import java.util.Scanner;
  * presence.
  */
 public class NanoleafShapes implements StatusChangeHandler {
-    private static final String CONFIG_DIR = System.getProperty("user.dir") + File.separator + "resources" + File.separator;
-    private static final String PROPS_PATH = CONFIG_DIR + "nanoleaf.properties";
-    private static final String SERVICE_TYPE = "_nanoleafapi._tcp.local.";
-    private static final int API_PORT = 16021;
-    private String baseUrl;
+    private static final String PROPS_FILE = "nanoleaf.properties";
+    private static final String PALETTES_FILE = "palettes.properties";
+    static final String SERVICE_TYPE = "_nanoleafapi._tcp.local.";
+    // Overridable so the app can be pointed at a local stand-in for the controller
+    private static final int API_PORT = Integer.getInteger("nanoleaf.port", 16021);
+    private static final Duration VERIFY_INTERVAL = Duration.ofMinutes(10);
+    private static final Object POWERED_OFF = new Object();
+    private static final Duration RECONNECT_BASE_DELAY = Duration.ofSeconds(1);
+    private static final Duration RECONNECT_MAX_DELAY = Duration.ofMinutes(1);
+    // One client (and selector thread) for every device in the process
+    private static final HttpClient SHARED_CLIENT = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+    private final String propsSuffix;
+    private volatile String authToken;
+    private volatile String deviceName;
+    private volatile String ip;
+    private volatile String baseUrl;
     private final HttpClient client;
-    public static Map<String, NanoleafEffect.PaletteColor[]> STATUS_PALETTES = Map.ofEntries(
+    // Created on first use, so the constructor does not hand out this
+    private DeviceCircuitBreaker breaker;
+    // Read and replaced as one value by the writer, the fan-out threads and address changes
+    private volatile Applied lastApplied;
+    private static final Map<String, NanoleafEffect.PaletteColor[]> DEFAULT_PALETTES = Map.ofEntries(
             Map.entry("Available", new NanoleafEffect.PaletteColor[] {
                     new NanoleafEffect.PaletteColor(100, 100, 100, 70),
                     new NanoleafEffect.PaletteColor(100, 75, 100, 30),
@@ -41,6 +58,73 @@ public class NanoleafShapes implements StatusChangeHandler {
                     new NanoleafEffect.PaletteColor(282, 100, 10, 20),
                     new NanoleafEffect.PaletteColor(0, 0, 0, 80)
             }));
+    // Replaced by the config watcher while device threads read it
+    private static volatile Map<String, NanoleafEffect.PaletteColor[]> statusPalettes = DEFAULT_PALETTES;
+
+    /**
+     * @return the current palette table, keyed by Busy, Away, OutOfOffice and
+     *         Available; replaced as a whole, never modified
+     */
+    public static Map<String, NanoleafEffect.PaletteColor[]> getStatusPalettes() {
+        return statusPalettes;
+    }
+
+    /**
+     * Replaces the palette table and drops the effect payloads compiled from
+     * the previous one.
+     *
+     * @param palettes palettes keyed by Busy, Away, OutOfOffice and Available
+     */
+    public static void setStatusPalettes(Map<String, NanoleafEffect.PaletteColor[]> palettes) {
+        statusPalettes = Map.copyOf(palettes);
+        EffectPayloadCache.invalidate();
+    }
+
+    /**
+     * Applies the palettes in palettes.properties and keeps applying them
+     * whenever the file changes. Each palette is a list of
+     * {@code hue,saturation,brightness,probability} colors separated by
+     * semicolons:
+     * <pre>
+     * Busy=0,100,100,50;0,100,70,50
+     * </pre>
+     * Palettes not listed in the file keep their built-in colors.
+     */
+    public static void loadPalettes() {
+        ConfigService.onChange(PALETTES_FILE, NanoleafShapes::applyPalettes);
+        try {
+            applyPalettes(ConfigService.get(PALETTES_FILE));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid " + PALETTES_FILE + ", using built-in palettes: " + e.getMessage());
+        }
+    }
+
+    private static void applyPalettes(Map<String, String> props) {
+        Map<String, NanoleafEffect.PaletteColor[]> palettes = new HashMap<>(DEFAULT_PALETTES);
+        for (Map.Entry<String, String> entry : props.entrySet()) {
+            String[] colors = entry.getValue().split(";");
+            NanoleafEffect.PaletteColor[] palette = new NanoleafEffect.PaletteColor[colors.length];
+            for (int i = 0; i < colors.length; i++) {
+                String[] parts = colors[i].trim().split("\\s*,\\s*");
+                if (parts.length != 4) {
+                    throw new IllegalArgumentException("Palette " + entry.getKey() + " needs hue,saturation,brightness,probability");
+                }
+                palette[i] = new NanoleafEffect.PaletteColor(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]),
+                        Integer.parseInt(parts[2]), Integer.parseInt(parts[3]));
+            }
+            palettes.put(entry.getKey().trim(), palette);
+        }
+        setStatusPalettes(palettes);
+    }
+
+    /**
+     * The state last written to the device and when it was written.
+     *
+     * @param state      the palette written, or {@link #POWERED_OFF}
+     * @param writeNanos {@link System#nanoTime()} of the write
+     */
+    private record Applied(Object state, long writeNanos) {
+    }
 
     /***
      * Creates a new NanoleafShapes
@@ -49,36 +133,153 @@ public class NanoleafShapes implements StatusChangeHandler {
      * @param authToken Authorization token received from Nanoleaf
      */
     public NanoleafShapes(String ip, String authToken) {
+        this(ip, authToken, "", null);
+    }
+
+    /**
+     * Creates a device saved in nanoleaf.properties.
+     *
+     * @param ip          IP Address of the Nanoleaf Device
+     * @param authToken   Authorization token received from Nanoleaf
+     * @param propsSuffix suffix of this device's keys, empty for the primary device,
+     *                    null for a device that is not saved in nanoleaf.properties
+     * @param deviceName  mDNS service name, or null if not known yet
+     */
+    NanoleafShapes(String ip, String authToken, String propsSuffix, String deviceName) {
         if (authToken == null || authToken.isEmpty()) {
             authToken = generateAuthToken(ip);
-            writePropsToFile(ip, authToken);
+            writePropsToFile(propsSuffix, ip, authToken, deviceName);
         }
-        this.baseUrl = String.format("http://%s:%d/api/v1/%s", ip, API_PORT, authToken);
-        this.client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+        this.propsSuffix = propsSuffix;
+        this.authToken = authToken;
+        this.deviceName = deviceName;
+        this.ip = ip;
+        this.baseUrl = buildBaseUrl(ip, authToken);
+        this.client = SHARED_CLIENT;
+    }
+
+    private synchronized DeviceCircuitBreaker breaker() {
+        if (breaker == null) {
+            breaker = new DeviceCircuitBreaker(ip, RECONNECT_BASE_DELAY, RECONNECT_MAX_DELAY,
+                    this::probe, this::recover);
+        }
+        return breaker;
+    }
+
+    private static String buildBaseUrl(String ip, String authToken) {
+        return String.format("http://%s:%d/api/v1/%s", ip, API_PORT, authToken);
     }
 
     public static NanoleafShapes fromPropertiesFile() {
-        Properties props = new Properties();
-        try (InputStream in = new FileInputStream(PROPS_PATH)) {
-            props.load(in);
-            String ip = props.getProperty("ip");
-            String token = props.getProperty("accessToken");
-            if (ip != null && token != null) {
-                return new NanoleafShapes(ip, token);
+        Map<String, String> props = ConfigService.get(PROPS_FILE);
+        String ip = props.get("ip");
+        String token = props.get("accessToken");
+        if (ip != null && token != null) {
+            return new NanoleafShapes(ip, token, "", props.get("name"));
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the additional devices listed in nanoleaf.properties as
+     * {@code ip.N}/{@code accessToken.N} pairs, numbered from 1. Devices
+     * without a saved token are skipped since pairing needs the user.
+     *
+     * @return the additional devices, possibly empty
+     */
+    public static List<NanoleafShapes> additionalFromPropertiesFile() {
+        Map<String, String> props = ConfigService.get(PROPS_FILE);
+        List<NanoleafShapes> devices = new ArrayList<>();
+        for (int i = 1; props.get("ip." + i) != null; i++) {
+            String token = props.get("accessToken." + i);
+            if (token != null && !token.isEmpty()) {
+                devices.add(new NanoleafShapes(props.get("ip." + i), token, "." + i, props.get("name." + i)));
             } else {
-                return null;
+                System.out.println("Skipping " + props.get("ip." + i) + ": no accessToken." + i);
             }
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to read properties file", e);
         }
+        return devices;
+    }
+
+    /**
+     * Follows edits to nanoleaf.properties: a saved device whose address or
+     * token changes in the file is pointed at the new values without a
+     * restart.
+     *
+     * @param devices the devices to keep in sync with the file
+     */
+    public static void reloadOnChange(List<NanoleafShapes> devices) {
+        ConfigService.onChange(PROPS_FILE, props -> devices.forEach(device -> device.applyConfig(props)));
+    }
+
+    private synchronized void applyConfig(Map<String, String> props) {
+        if (propsSuffix == null) {
+            return;
+        }
+        String newIp = props.get("ip" + propsSuffix);
+        String newToken = props.get("accessToken" + propsSuffix);
+        if (newIp == null || newToken == null || (newIp.equals(ip) && newToken.equals(authToken))) {
+            return;
+        }
+        System.out.println("Device " + ip + " reconfigured to " + newIp);
+        this.ip = newIp;
+        this.authToken = newToken;
+        this.baseUrl = buildBaseUrl(newIp, newToken);
+        this.lastApplied = null;
+    }
+
+    /**
+     * @return the IP address this device is controlled through
+     */
+    public String getIp() {
+        return ip;
+    }
+
+    /**
+     * @return the mDNS service name of this device, or null if not known yet
+     */
+    public String getDeviceName() {
+        return deviceName;
+    }
+
+    /**
+     * Points this device at a new address, e.g. after DHCP handed the
+     * controller a different IP, and saves it to nanoleaf.properties.
+     *
+     * @param newIp the controller's current IP address
+     */
+    synchronized void updateAddress(String newIp) {
+        this.ip = newIp;
+        this.baseUrl = buildBaseUrl(newIp, authToken);
+        this.lastApplied = null;
+        writePropsToFile(propsSuffix, newIp, authToken, deviceName);
     }
 
-    private void writePropsToFile(String ip, String accessToken) {
-        Properties props = new Properties();
-        props.setProperty("ip", ip);
-        props.setProperty("accessToken", accessToken);
-        try (FileOutputStream out = new FileOutputStream(PROPS_PATH)) {
-            props.store(out, null);
+    /**
+     * Remembers the mDNS service name of this device so it can be found again
+     * after an address change.
+     *
+     * @param name the mDNS service name
+     */
+    synchronized void bindName(String name) {
+        this.deviceName = name;
+        writePropsToFile(propsSuffix, ip, authToken, name);
+    }
+
+    private static synchronized void writePropsToFile(String suffix, String ip, String accessToken, String name) {
+        if (suffix == null) {
+            return;
+        }
+        // Keep any other devices already listed in the file
+        Map<String, String> props = new HashMap<>(ConfigService.get(PROPS_FILE));
+        props.put("ip" + suffix, ip);
+        props.put("accessToken" + suffix, accessToken);
+        if (name != null) {
+            props.put("name" + suffix, name);
+        }
+        try {
+            ConfigService.store(PROPS_FILE, props);
         } catch (IOException e) {
             System.err.println("Could not write Nanoleaf props to file");
         }
@@ -125,36 +326,44 @@ public class NanoleafShapes implements StatusChangeHandler {
     }
 
     private static String findDeviceIPByUserSelection() {
-        try (JmDNS jmdns = JmDNS.create(InetAddress.getLocalHost())) {
-            ServiceInfo[] services = jmdns.list(SERVICE_TYPE, 5000);
-            if (services.length == 0) {
-                System.out.println("No services found.");
-                return null;
-            }
+        // Use the devices already seen by background discovery before scanning
+        ServiceInfo[] services = NanoleafDiscovery.services();
+        if (services.length == 0) {
+            services = scanForServices();
+        }
+        if (services.length == 0) {
+            System.out.println("No services found.");
+            return null;
+        }
 
-            System.out.println("Found devices:");
-            for (int i = 0; i < services.length; i++) {
-                System.out.printf("[%d] %s (%s)%n", i, services[i].getName(), services[i].getHostAddresses()[0]);
-            }
+        System.out.println("Found devices:");
+        for (int i = 0; i < services.length; i++) {
+            System.out.printf("[%d] %s (%s)%n", i, services[i].getName(), services[i].getHostAddresses()[0]);
+        }
 
-            System.out.print("Select a device by number: ");
-            Scanner scanner = new Scanner(System.in);
-            int choice = scanner.nextInt();
-            scanner.close();
+        System.out.print("Select a device by number: ");
+        Scanner scanner = new Scanner(System.in);
+        int choice = scanner.nextInt();
+        scanner.close();
 
-            if (choice >= 0 && choice < services.length) {
-                return services[choice].getHostAddresses()[0];
-            } else {
-                System.out.println("Invalid choice.");
-            }
+        if (choice >= 0 && choice < services.length) {
+            return services[choice].getHostAddresses()[0];
+        } else {
+            System.out.println("Invalid choice.");
+        }
+        return null;
+    }
+
+    private static ServiceInfo[] scanForServices() {
+        try (JmDNS jmdns = JmDNS.create(InetAddress.getLocalHost())) {
+            return jmdns.list(SERVICE_TYPE, 5000);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        return null;
     }
 
 
-    private HttpRequest.Builder reqBuilder(String path) {
+    HttpRequest.Builder reqBuilder(String path) {
         return HttpRequest.newBuilder()
                 .uri(URI.create(baseUrl + path))
                 .timeout(Duration.ofSeconds(3))
@@ -204,17 +413,28 @@ public class NanoleafShapes implements StatusChangeHandler {
      * Set color using RGB; panels expect HSV internally
      */
     public void setColor(int r, int g, int b) throws IOException, InterruptedException {
+        String json = colorJson(r, g, b);
+        client.send(reqBuilder("/state/color")
+                .PUT(HttpRequest.BodyPublishers.ofString(json)).build(),
+                HttpResponse.BodyHandlers.discarding());
+    }
+
+    static String colorJson(int r, int g, int b) {
         // Simple RGB→HSV conversion
         float[] hsv = java.awt.Color.RGBtoHSB(r, g, b, null);
         int hue = Math.round(hsv[0] * 360);
         int sat = Math.round(hsv[1] * 100);
         int bri = Math.round(hsv[2] * 100);
-        String json = String.format(
+        return String.format(
                 "{\"hue\":{\"value\":%d},\"sat\":{\"value\":%d},\"brightness\":{\"value\":%d}}",
                 hue, sat, bri);
-        client.send(reqBuilder("/state/color")
-                .PUT(HttpRequest.BodyPublishers.ofString(json)).build(),
-                HttpResponse.BodyHandlers.discarding());
+    }
+
+    /**
+     * @return the HTTP client this device is controlled through
+     */
+    HttpClient httpClient() {
+        return client;
     }
 
     /**
@@ -236,11 +456,31 @@ public class NanoleafShapes implements StatusChangeHandler {
     }
 
     public void displayEffect(NanoleafEffect effect) throws IOException, InterruptedException {
-        String json = "{\"write\": " + effect.toString() + "}";
-        client.send(reqBuilder("/effects").PUT(HttpRequest.BodyPublishers.ofString(json)).build(),
+        displayPayload(effect.toWritePayload());
+    }
+
+    /**
+     * Writes a pre-serialized effect without copying it.
+     *
+     * @param payload UTF-8 encoded {@code {"write": ...}} request body
+     */
+    private void displayPayload(byte[] payload) throws IOException, InterruptedException {
+        client.send(reqBuilder("/effects").PUT(HttpRequest.BodyPublishers.ofByteArray(payload)).build(),
                 HttpResponse.BodyHandlers.discarding());
     }
 
+    /**
+     * What {@link #applyStatus(Presence)} did with a presence.
+     */
+    enum WriteOutcome {
+        /** The device acknowledged a write. */
+        WRITTEN,
+        /** The device already showed the presence, so nothing was sent. */
+        UNCHANGED,
+        /** The device is unreachable; the presence is kept for when it is back. */
+        HELD
+    }
+
     /**
      * Set Nanoleaf effect to match availability color
      *
@@ -248,46 +488,129 @@ public class NanoleafShapes implements StatusChangeHandler {
      */
     @Override
     public void handleStatusChange(Presence userPresence) {
+        try {
+            applyStatus(userPresence);
+        } catch (IOException e) {
+            // The breaker has already been tripped and has logged it
+        }
+    }
 
+    /**
+     * Set Nanoleaf effect to match availability color, reporting what was done.
+     *
+     * @param userPresence the user's current Teams presence
+     * @return whether the device was written to, or why not
+     * @throws IOException if the write failed; the breaker has then been tripped
+     */
+    WriteOutcome applyStatus(Presence userPresence) throws IOException {
+        if (!breaker().allow(userPresence)) {
+            return WriteOutcome.HELD;
+        }
+        return write(userPresence);
+    }
+
+    /**
+     * Writes a presence the breaker let through, and trips the breaker if the
+     * device fails.
+     */
+    private WriteOutcome write(Presence userPresence) throws IOException {
         try {
-            if (!(userPresence.availability.equals("Offline"))) {
-                NanoleafEffect.PaletteColor[] palette = getPaletteColors(userPresence);
-                NanoleafEffect effect = new NanoleafEffect(palette);
-                displayEffect(effect);
-            } else {
-                setPower(false);
+            try {
+                return applyPresence(userPresence);
+            } catch (IOException e) {
+                // Background discovery may already know the controller's new address
+                String discovered = NanoleafDiscovery.currentAddress(deviceName);
+                if (discovered == null || discovered.equals(ip)) {
+                    throw e;
+                }
+                System.out.println("Device moved to " + discovered + ", retrying.");
+                updateAddress(discovered);
+                return applyPresence(userPresence);
             }
         } catch (IOException e) {
-            NanoleafShapes newNano = findDevice();
-            if (newNano == null) {
-                throw new RuntimeException("Lost connection to device");
-            }
-            this.baseUrl = newNano.baseUrl;
-            handleStatusChange(userPresence);
+            lastApplied = null;
+            Metrics.deviceError();
+            breaker().trip(userPresence);
+            throw e;
         } catch (InterruptedException e) {
             throw new RuntimeException("Error updating effect: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * Writes the presence the breaker kept while the device was unreachable.
+     */
+    private void recover(Presence userPresence) {
+        try {
+            write(userPresence);
+        } catch (IOException e) {
+            // write has tripped the breaker again
+        }
+    }
+
+    private WriteOutcome applyPresence(Presence userPresence) throws IOException, InterruptedException {
+        NanoleafEffect.PaletteColor[] palette = getPaletteColors(userPresence);
+        if (palette != null) {
+            if (isAlreadyApplied(palette)) {
+                return WriteOutcome.UNCHANGED;
+            }
+            long start = System.nanoTime();
+            displayPayload(EffectPayloadCache.payloadFor(palette));
+            Metrics.deviceAcknowledged(userPresence.trace, start);
+            markApplied(palette);
+        } else {
+            if (isAlreadyApplied(POWERED_OFF)) {
+                return WriteOutcome.UNCHANGED;
+            }
+            long start = System.nanoTime();
+            setPower(false);
+            Metrics.deviceAcknowledged(userPresence.trace, start);
+            markApplied(POWERED_OFF);
+        }
+        return WriteOutcome.WRITTEN;
+    }
+
+    /**
+     * Checks whether the device answers, following it to a new address if
+     * discovery has seen one.
+     */
+    private void probe() throws IOException, InterruptedException {
+        String discovered = NanoleafDiscovery.currentAddress(deviceName);
+        if (discovered != null && !discovered.equals(ip)) {
+            updateAddress(discovered);
+        }
+        getPower();
+    }
+
+    /**
+     * Checks whether the device is already showing {@code state}. The write is
+     * only skipped until {@link #VERIFY_INTERVAL} has passed since the last
+     * write, so changes made outside this app are corrected by the first
+     * presence that arrives after that. Nothing is re-written on a timer,
+     * since the pipeline's writer is meant to be the only thread writing.
+     *
+     * @param state the palette about to be written, or {@link #POWERED_OFF}
+     * @return true if the write can be skipped
+     */
+    private boolean isAlreadyApplied(Object state) {
+        Applied applied = lastApplied;
+        return applied != null && applied.state() == state
+                && System.nanoTime() - applied.writeNanos() < VERIFY_INTERVAL.toNanos();
+    }
+
+    private void markApplied(Object state) {
+        lastApplied = new Applied(state, System.nanoTime());
+    }
+
     /**
      * Gets the defined effect palette colors for a given Presence.
      *
      * @param userPresence a Presence to retrieve the color(s) for
-     * @return an array containing 1 or more colors
+     * @return an array containing 1 or more colors, or null if the device should be turned off
      * @see com.cooldudes.nanoleaf.teams.indicator.NanoleafEffect.PaletteColor
-     * @see Presence
+     * @see PresenceRules
      */
-    private static NanoleafEffect.PaletteColor[] getPaletteColors(Presence userPresence) {
-        NanoleafEffect.PaletteColor[] palette;
-        if (userPresence.availability.equals("Busy") || userPresence.availability.equals("DoNotDisturb")) {
-            palette = STATUS_PALETTES.get("Busy");
-        } else if (userPresence.availability.equals("Away") || userPresence.availability.equals("BeRightBack")) {
-            palette = STATUS_PALETTES.get("Away");
-        } else if (userPresence.activity.equals("OutOfOffice")) {
-            palette = STATUS_PALETTES.get("OutOfOffice");
-        } else {
-            palette = STATUS_PALETTES.get("Available");
-        }
-        return palette;
+    static NanoleafEffect.PaletteColor[] getPaletteColors(Presence userPresence) {
+        return PresenceRules.get().paletteFor(userPresence);
     }
 }
@@ -0,0 +1,135 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Non-blocking counterpart of {@link NanoleafShapes}. Requests are sent with
+ * {@code sendAsync} and composed as futures, and at most a fixed number of
+ * requests are outstanding against the controller at any time.
+ */
+public class NanoleafShapesAsync {
+
+    /**
+     * Embedded controllers only accept a handful of connections at once.
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 2;
+
+    private final NanoleafShapes device;
+    private final AsyncLimiter limiter;
+
+    /**
+     * Wraps a device, sharing its address and HTTP client.
+     *
+     * @param device      the device to control
+     * @param maxInFlight how many requests may be outstanding at once
+     */
+    public NanoleafShapesAsync(NanoleafShapes device, int maxInFlight) {
+        this.device = device;
+        this.limiter = new AsyncLimiter(maxInFlight);
+    }
+
+    /**
+     * Wraps a device with {@link #DEFAULT_MAX_IN_FLIGHT} requests allowed.
+     *
+     * @param device the device to control
+     */
+    public NanoleafShapesAsync(NanoleafShapes device) {
+        this(device, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * @return the wrapped device
+     */
+    public NanoleafShapes getDevice() {
+        return device;
+    }
+
+    /**
+     * @return a future completed with true if the device is on
+     */
+    public CompletableFuture<Boolean> getPowerAsync() {
+        return send("/state/on", device.reqBuilder("/state/on").GET().build(), HttpResponse.BodyHandlers.ofString())
+                .thenApply(body -> body.contains("\"value\":true"));
+    }
+
+    /**
+     * @param on true to power on, false to power off
+     * @return a future completed once the device accepted the change
+     */
+    public CompletableFuture<Void> setPowerAsync(boolean on) {
+        String json = String.format("{\"on\":{\"value\":%b}}", on);
+        return put("/state/on", HttpRequest.BodyPublishers.ofString(json));
+    }
+
+    /**
+     * @param level brightness between 0 and 100
+     * @return a future completed once the device accepted the change
+     */
+    public CompletableFuture<Void> setBrightnessAsync(int level) {
+        String json = String.format("{\"brightness\":{\"value\":%d}}", level);
+        return put("/state/brightness", HttpRequest.BodyPublishers.ofString(json));
+    }
+
+    /**
+     * Set color using RGB; panels expect HSV internally
+     *
+     * @return a future completed once the device accepted the change
+     */
+    public CompletableFuture<Void> setColorAsync(int r, int g, int b) {
+        return put("/state/color", HttpRequest.BodyPublishers.ofString(NanoleafShapes.colorJson(r, g, b)));
+    }
+
+    /**
+     * @param effect the effect to display
+     * @return a future completed once the device accepted the effect
+     */
+    public CompletableFuture<Void> displayEffectAsync(NanoleafEffect effect) {
+        return displayPayloadAsync(effect.toWritePayload());
+    }
+
+    /**
+     * Writes a pre-serialized effect without copying it.
+     *
+     * @param payload UTF-8 encoded {@code {"write": ...}} request body
+     * @return a future completed once the device accepted the effect
+     */
+    public CompletableFuture<Void> displayPayloadAsync(byte[] payload) {
+        return put("/effects", HttpRequest.BodyPublishers.ofByteArray(payload));
+    }
+
+    /**
+     * Shows the effect for a presence with a single effect write, which also
+     * powers the panels on; a presence whose rule is Off turns the device off
+     * instead.
+     *
+     * @param userPresence the user's current Teams presence
+     * @return a future completed once the device accepted the write
+     */
+    public CompletableFuture<Void> applyAsync(Presence userPresence) {
+        NanoleafEffect.PaletteColor[] palette = NanoleafShapes.getPaletteColors(userPresence);
+        if (palette == null) {
+            return setPowerAsync(false);
+        }
+        byte[] payload = EffectPayloadCache.payloadFor(palette);
+        return displayPayloadAsync(payload);
+    }
+
+    private CompletableFuture<Void> put(String path, HttpRequest.BodyPublisher body) {
+        return send(path, device.reqBuilder(path).PUT(body).build(), HttpResponse.BodyHandlers.discarding());
+    }
+
+    private <T> CompletableFuture<T> send(String path, HttpRequest request, HttpResponse.BodyHandler<T> handler) {
+        return limiter.submit(() -> device.httpClient().sendAsync(request, handler))
+                .thenApply(response -> {
+                    if (response.statusCode() >= 300) {
+                        throw new CompletionException(new IOException(
+                                "Device answered " + response.statusCode() + " for " + path));
+                    }
+                    return response.body();
+                });
+    }
+}
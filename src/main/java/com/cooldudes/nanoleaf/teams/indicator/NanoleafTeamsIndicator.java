@@ -5,6 +5,14 @@
 package com.cooldudes.nanoleaf.teams.indicator;
 
 import java.io.*;
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CountDownLatch;
 
 /**
@@ -15,61 +23,269 @@ import java.util.concurrent.CountDownLatch;
  */
 public class NanoleafTeamsIndicator {
 
+    private static final Duration DEVICE_TIMEOUT = Duration.ofSeconds(5);
     private static NanoleafShapes shapes;
 
     /**
      * Main method to start the application.
      * 
-     * @param args Command-line arguments (not used)
+     * @param args Command-line arguments; {@code --daemon [tenants file]} runs
+     *             every user listed in tenants.properties in this process, and
+     *             {@code --replay <log> [realtime|10x|max] [device ip] [device token]}
+     *             replays recorded events, writing them to the given device or
+     *             otherwise without connecting to anything
      */
     public static void main(String[] args) {
         try {
 
-            String clientState = Graph.initialize();
-            if (clientState == null) clientState = RandomGenerators.generateRandomString(7);
-            connectToNanoleaf();
-            SocketConnection socket = new SocketConnection(clientState, shapes);
+            DecryptionKeys.load();
+            if (args.length > 1 && args[0].equals("--replay")) {
+                replay(Path.of(args[1]), args.length > 2 ? EventReplayer.parseSpeed(args[2]) : EventReplayer.MAX_SPEED,
+                        args.length > 4 ? new NanoleafShapes(args[3], args[4], null, null) : null);
+                return;
+            }
+            startConfig();
+            PresenceRules.load();
+            NanoleafShapes.loadPalettes();
+            if (args.length > 0 && args[0].equals("--daemon")) {
+                MultiUserDaemon.run(args.length > 1 ? args[1] : MultiUserDaemon.DEFAULT_TENANTS_PATH);
+                return;
+            }
+            MetricsServer metrics = startMetrics();
+            startDiscovery();
+            long startNanos = System.nanoTime();
+            String clientState = Graph.prepare();
+            // Sign-in, the saved devices and Pusher do not depend on each other, so they start together.
+            // Only sign-in may need the user; searching for and pairing a device waits until it is done.
+            CompletableFuture<Void> auth = startPhase("Sign-in", () -> {
+                Graph.signIn();
+                return null;
+            });
+            CompletableFuture<NanoleafDeviceGroup> savedDevices = startPhase("Nanoleaf", NanoleafTeamsIndicator::connectSavedDevices);
+            CompletableFuture<NanoleafDeviceGroup> deviceGroup = new CompletableFuture<>();
+            // Events that arrive before the devices are ready wait in the pipeline
+            StatusChangeHandler handler = presence -> deviceGroup.join().handleStatusChange(presence);
+            CompletableFuture<NotificationSource> notifications = startPhase("Notifications", () ->
+                    openNotificationSource(List.of(new SocketConnection.Route(clientState, handler,
+                            () -> auth.thenCompose(_ -> Graph.ensureActiveSubscriptionAsync()),
+                            () -> auth.thenCompose(_ -> Graph.updateSubscriptionAsync())))));
+            NanoleafDeviceGroup group;
+            NotificationSource source;
+            try {
+                await(auth);
+                NanoleafDeviceGroup saved = await(savedDevices);
+                group = saved != null ? saved : connectDevices(findDevice());
+                deviceGroup.complete(group);
+                source = await(notifications);
+            } catch (Exception e) {
+                deviceGroup.completeExceptionally(e);
+                // Whichever phases did start must not keep the process alive
+                notifications.thenAccept(NotificationSource::disconnect);
+                NanoleafDiscovery.stop();
+                ConfigService.stop();
+                if (metrics != null) {
+                    metrics.close();
+                }
+                throw e;
+            }
+            System.out.println("Started in " + Duration.ofNanos(System.nanoTime() - startNanos).toMillis() + " ms");
+            PresencePoller poller = Graph.startPresencePoller(source.publisher(clientState), source::isConnected);
+            source.onConnectionChange(poller::wake);
             CountDownLatch latch = new CountDownLatch(1);
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 // Clean up resources, disconnect Pusher, etc.
                 try {
-                    shapes.setPower(false);
+                    group.powerOff();
+                    group.getStats().forEach((device, stats) ->
+                            System.out.println("Device " + device.getIp() + ": " + stats));
                 } catch (Exception e) {
                     System.out.println("Could not shutdown device: " + e.getMessage());
                 }
-                socket.disconnect();
+                poller.close();
+                source.disconnect();
+                NanoleafDiscovery.stop();
+                ConfigService.stop();
+                if (metrics != null) {
+                    metrics.close();
+                }
                 latch.countDown();
             }));
             latch.await();
         } catch (Exception e) {
             System.out.println("Error: " + e);
+            System.exit(1);
         }
     }
 
     /**
-     * Connects to the Nanoleaf device, either by using saved properties or
-     * discovering a new device.
-     * If no access token is found, it will search for the first available Nanoleaf
-     * device.
-     * 
-     * @throws InterruptedException if the thread is interrupted while waiting
+     * Replays an event log recorded with {@code -Devents.record=<log>} and
+     * prints the decrypted presences and the throughput and latency of the run.
+     *
+     * @param log    the event log
+     * @param speed  replay speed, see {@link EventReplayer#parseSpeed(String)}
+     * @param device device to show the replayed presences on, or null for none
+     * @throws Exception if the log cannot be read
+     */
+    private static void replay(Path log, double speed, NanoleafShapes device) throws Exception {
+        System.out.println("Replaying " + log + "...");
+        EventReplayer.Result result = EventReplayer.replay(log, device != null ? device : _ -> {
+        }, speed);
+        System.out.println(result);
+    }
+
+    /**
+     * Starts receiving notifications for the given channels: directly as
+     * webhooks when the {@code webhook.port} system property is set, through
+     * the Pusher relay otherwise. The webhook receiver listens on
+     * {@code webhook.bind}, loopback by default, behind a TLS-terminating
+     * reverse proxy.
+     *
+     * @param routes the channels to receive
+     * @return the running notification source
+     * @throws Exception if the receiver or Pusher cannot be started
+     */
+    static NotificationSource openNotificationSource(List<SocketConnection.Route> routes) throws Exception {
+        Integer webhookPort = Integer.getInteger("webhook.port");
+        if (webhookPort != null) {
+            String bind = System.getProperty("webhook.bind");
+            WebhookReceiver receiver = new WebhookReceiver(
+                    bind != null ? InetAddress.getByName(bind) : InetAddress.getLoopbackAddress(), webhookPort, routes);
+            receiver.start();
+            return receiver;
+        }
+        return new SocketConnection(routes);
+    }
+
+    /**
+     * Starts the local metrics endpoint on the port given by the
+     * {@code metrics.port} system property (9464 by default).
+     *
+     * @return the running endpoint, or null if it could not be started
+     */
+    static MetricsServer startMetrics() {
+        try {
+            MetricsServer server = new MetricsServer(Integer.getInteger("metrics.port", 9464));
+            System.out.println("Metrics available at http://localhost:" + server.getPort() + "/metrics");
+            return server;
+        } catch (IOException e) {
+            System.out.println("Metrics endpoint unavailable: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Starts watching the resources directory so edited settings apply
+     * without a restart. Runs on the settings read at startup if the
+     * directory cannot be watched.
+     */
+    static void startConfig() {
+        try {
+            ConfigService.start();
+        } catch (IOException e) {
+            System.out.println("Configuration reloading unavailable: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Starts background discovery so address changes are picked up without a
+     * rescan. Runs without it if mDNS is unavailable.
      */
-    private static void connectToNanoleaf() throws InterruptedException {
-        shapes = NanoleafShapes.fromPropertiesFile();
-        if (shapes != null) {
+    static void startDiscovery() {
+        try {
+            NanoleafDiscovery.start();
+        } catch (IOException e) {
+            System.out.println("Device discovery unavailable: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs one startup phase on its own thread and reports how long it took.
+     *
+     * @param name  name of the phase, used in log output
+     * @param phase the work to do
+     * @return a future completed with the phase's result
+     */
+    private static <T> CompletableFuture<T> startPhase(String name, Callable<T> phase) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Thread.ofVirtual().name("startup-" + name).start(() -> {
+            long start = System.nanoTime();
             try {
-                // Test the connection by turning on the device
-                shapes.setPower(true);
-            } catch (IOException e) {
-                // If we cannot connect then look for another one.
-                System.out.println("Could not connect to device. Beginning search...");
-                shapes = NanoleafShapes.findDevice();
+                result.complete(phase.call());
+                System.out.println(name + " ready after " + Duration.ofNanos(System.nanoTime() - start).toMillis() + " ms");
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Waits for a startup phase, rethrowing its failure as is.
+     */
+    private static <T> T await(CompletableFuture<T> phase) throws Exception {
+        try {
+            return phase.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
             }
-        } else {
-            shapes = NanoleafShapes.findDevice();
+            throw e;
+        }
+    }
+
+    /**
+     * Connects to the primary device and the additional devices saved in
+     * nanoleaf.properties, without asking the user anything.
+     *
+     * @return the devices to show presence on, or null if the primary device
+     *         is not saved or does not answer
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    private static NanoleafDeviceGroup connectSavedDevices() throws InterruptedException {
+        NanoleafShapes primary = NanoleafShapes.fromPropertiesFile();
+        if (primary == null) {
+            return null;
         }
-        if (shapes == null) {
-            System.exit(0);
+        try {
+            // Test the connection by turning on the device
+            primary.setPower(true);
+        } catch (IOException e) {
+            // If we cannot connect then look for another one.
+            System.out.println("Could not connect to device. Searching once sign-in is done...");
+            return null;
+        }
+        return connectDevices(primary);
+    }
+
+    /**
+     * Asks the user to pick a device on the network and pairs with it.
+     *
+     * @return the device
+     * @throws IllegalStateException if no device was found
+     */
+    private static NanoleafShapes findDevice() {
+        NanoleafShapes found = NanoleafShapes.findDevice();
+        if (found == null) {
+            throw new IllegalStateException("No Nanoleaf device found");
         }
+        return found;
+    }
+
+    /**
+     * Groups the primary device with the additional devices in
+     * nanoleaf.properties.
+     *
+     * @param primary the primary device
+     * @return the devices to show presence on
+     */
+    private static NanoleafDeviceGroup connectDevices(NanoleafShapes primary) {
+        shapes = primary;
+        List<NanoleafShapes> devices = new ArrayList<>();
+        devices.add(shapes);
+        devices.addAll(NanoleafShapes.additionalFromPropertiesFile());
+        NanoleafDeviceGroup group = new NanoleafDeviceGroup(devices, DEVICE_TIMEOUT);
+        devices.forEach(NanoleafDiscovery::track);
+        NanoleafShapes.reloadOnChange(devices);
+        return group;
     }
 }
@@ -0,0 +1,76 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One entry of a Graph notification payload.
+ *
+ * @param clientState    client state of the subscription it belongs to, or null if not given
+ * @param lifecycleEvent lifecycle event name, or null for a change notification
+ * @param content        encrypted resource data, or null for a lifecycle notification
+ */
+record Notification(String clientState, String lifecycleEvent, EncryptedData content) {
+
+    /**
+     * Reads every notification in a payload in one pass. Accepts a Graph
+     * payload with a {@code value} array as well as a bare
+     * {@code encryptedContent} object, as relayed through Pusher.
+     *
+     * @param json the payload
+     * @return the notifications in payload order
+     * @throws IllegalArgumentException if the JSON is malformed
+     */
+    static List<Notification> parseAll(CharSequence json) {
+        JsonScanner scanner = new JsonScanner(json);
+        scanner.beginObject();
+        List<Notification> notifications = new ArrayList<>();
+        EncryptedData.Reader bare = new EncryptedData.Reader();
+        while (scanner.nextField()) {
+            if (scanner.fieldIs("value")) {
+                if (scanner.beginArray()) {
+                    while (scanner.nextElement()) {
+                        if (scanner.atObject()) {
+                            notifications.add(read(scanner));
+                        } else {
+                            scanner.skipValue();
+                        }
+                    }
+                }
+            } else if (!bare.accept(scanner)) {
+                scanner.skipValue();
+            }
+        }
+        if (!bare.isEmpty()) {
+            notifications.add(new Notification(null, null, bare.build()));
+        }
+        return notifications;
+    }
+
+    private static Notification read(JsonScanner scanner) {
+        scanner.beginObject();
+        String clientState = null;
+        String lifecycleEvent = null;
+        EncryptedData content = null;
+        while (scanner.nextField()) {
+            if (scanner.fieldIs("clientState")) {
+                clientState = scanner.stringValue();
+            } else if (scanner.fieldIs("lifecycleEvent")) {
+                lifecycleEvent = scanner.stringValue();
+            } else if (scanner.fieldIs("encryptedContent") && scanner.atObject()) {
+                scanner.beginObject();
+                EncryptedData.Reader reader = new EncryptedData.Reader();
+                while (scanner.nextField()) {
+                    if (!reader.accept(scanner)) {
+                        scanner.skipValue();
+                    }
+                }
+                // An incomplete entry is passed on without content rather than failing the whole payload
+                content = reader.isComplete() ? reader.build() : null;
+            } else {
+                scanner.skipValue();
+            }
+        }
+        return new Notification(clientState, lifecycleEvent, content);
+    }
+}
@@ -0,0 +1,34 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+/**
+ * Delivers Graph presence notifications to each channel's handler, either
+ * relayed through Pusher or received directly as webhooks.
+ */
+public interface NotificationSource {
+
+    /**
+     * @return whether notifications can currently be delivered
+     */
+    boolean isConnected();
+
+    /**
+     * Runs a callback whenever delivery starts or stops.
+     *
+     * @param listener the callback
+     */
+    void onConnectionChange(Runnable listener);
+
+    /**
+     * Returns a handler that feeds presences into a channel's pipeline, as if
+     * they had been delivered on the channel.
+     *
+     * @param clientState the channel's client state
+     * @return a handler publishing to that channel's pipeline
+     */
+    StatusChangeHandler publisher(String clientState);
+
+    /**
+     * Stops delivering notifications.
+     */
+    void disconnect();
+}
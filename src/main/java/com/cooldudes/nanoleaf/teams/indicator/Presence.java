@@ -4,8 +4,13 @@ package com.cooldudes.nanoleaf.teams.indicator;
  * Represents a user's Teams presence, including availability and activity.
  */
 public class Presence {
-    public String availability;
-    public String activity;
+    public Availability availability;
+    public Activity activity;
+    /** Object id of the user, when the source reports it. */
+    String userId;
+    /** Graph's lexicographically sortable version stamp, when the source reports it. */
+    String sequenceNumber;
+    EventTrace trace;
 
     /**
      * Constructs a Presence object.
@@ -13,11 +18,33 @@ public class Presence {
      * @param availability The user's availability (e.g., Available, Busy)
      * @param activity     The user's activity (e.g., InACall, OutOfOffice)
      */
-    public Presence(String availability, String activity) {
+    public Presence(Availability availability, Activity activity) {
         this.availability = availability;
         this.activity = activity;
     }
 
+    /**
+     * Constructs a Presence object from the values Graph reports.
+     *
+     * @param availability The user's availability (e.g., Available, Busy)
+     * @param activity     The user's activity (e.g., InACall, OutOfOffice)
+     */
+    public Presence(String availability, String activity) {
+        this(Availability.fromGraph(availability), Activity.fromGraph(activity));
+    }
+
+    /**
+     * Tells whether this presence is older than one already seen for the same
+     * user. Presences without a version stamp are never stale.
+     *
+     * @param newestSequence the highest version stamp seen for the user, or null if none
+     * @return true if this presence carries a version stamp that is not newer
+     */
+    boolean isStaleComparedTo(String newestSequence) {
+        return sequenceNumber != null && newestSequence != null
+                && sequenceNumber.compareTo(newestSequence) <= 0;
+    }
+
     @Override
     public String toString() {
         return "Presence{" + "availability='" + availability + '\'' +
@@ -0,0 +1,152 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Fallback for when push delivery is down. While Pusher is disconnected or a
+ * subscription has lapsed, the presence of every watched user is read with
+ * one bulk Graph call per poll, and changes are sent to the same handlers push
+ * events go to. The poll interval shrinks while presence is changing and grows
+ * while it is not, and polling stops as soon as push delivery is healthy again.
+ */
+class PresencePoller implements AutoCloseable {
+
+    static final Duration MIN_INTERVAL = Duration.ofSeconds(5);
+    static final Duration MAX_INTERVAL = Duration.ofSeconds(60);
+    private static final Duration HEALTH_CHECK_INTERVAL = Duration.ofSeconds(10);
+
+    private final Graph account;
+    private final BooleanSupplier pushHealthy;
+    private final Map<String, List<StatusChangeHandler>> handlers = new ConcurrentHashMap<>();
+    private final Map<String, Presence> lastSeen = new ConcurrentHashMap<>();
+    private final Semaphore wake = new Semaphore(0);
+    private volatile boolean polling;
+    private Thread thread;
+
+    /**
+     * @param account     the account whose token reads presence
+     * @param pushHealthy reports whether push notifications are being delivered
+     */
+    PresencePoller(Graph account, BooleanSupplier pushHealthy) {
+        this.account = account;
+        this.pushHealthy = pushHealthy;
+    }
+
+    /**
+     * Sends a user's polled presence changes to a handler.
+     *
+     * @param userId  object id of the user
+     * @param handler receives the user's presence when it changes
+     */
+    void watch(String userId, StatusChangeHandler handler) {
+        handlers.computeIfAbsent(userId, _ -> new CopyOnWriteArrayList<>()).add(handler);
+    }
+
+    /**
+     * Starts checking push health in the background.
+     */
+    synchronized void start() {
+        if (thread == null) {
+            thread = Thread.ofVirtual().name("presence-poller").start(this::run);
+        }
+    }
+
+    /**
+     * Re-checks push health right away, e.g. after the Pusher connection
+     * changed state.
+     */
+    void wake() {
+        wake.release();
+    }
+
+    /**
+     * @return whether presence is currently being polled
+     */
+    boolean isPolling() {
+        return polling;
+    }
+
+    private void run() {
+        Duration interval = MIN_INTERVAL;
+        while (!Thread.currentThread().isInterrupted()) {
+            Duration wait;
+            if (pushHealthy.getAsBoolean()) {
+                if (polling) {
+                    polling = false;
+                    System.out.println("Push delivery is healthy again. Presence polling stopped.");
+                }
+                interval = MIN_INTERVAL;
+                wait = HEALTH_CHECK_INTERVAL;
+            } else {
+                if (!polling) {
+                    polling = true;
+                    // Anything may have changed while push was down, so the first poll is always applied
+                    lastSeen.clear();
+                    System.out.println("Push delivery unavailable. Polling presence for " + handlers.size() + " user(s)...");
+                }
+                try {
+                    boolean changed = poll();
+                    interval = changed ? MIN_INTERVAL : min(interval.multipliedBy(3).dividedBy(2), MAX_INTERVAL);
+                } catch (Exception e) {
+                    System.err.println("Presence poll failed: " + e.getMessage());
+                    interval = min(interval.multipliedBy(2), MAX_INTERVAL);
+                }
+                wait = interval;
+            }
+            try {
+                wake.tryAcquire(wait.toMillis(), TimeUnit.MILLISECONDS);
+                wake.drainPermits();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads every watched user's presence and dispatches the ones that changed.
+     *
+     * @return whether any presence changed since the previous poll
+     */
+    private boolean poll() {
+        Map<String, Presence> presences = account.getPresencesAsync(handlers.keySet()).join();
+        boolean changed = false;
+        for (Map.Entry<String, Presence> entry : presences.entrySet()) {
+            Presence presence = entry.getValue();
+            Presence previous = lastSeen.put(entry.getKey(), presence);
+            if (previous != null && previous.availability == presence.availability
+                    && previous.activity == presence.activity) {
+                continue;
+            }
+            changed = true;
+            for (StatusChangeHandler handler : handlers.getOrDefault(entry.getKey(), List.of())) {
+                try {
+                    handler.handleStatusChange(presence);
+                } catch (Exception e) {
+                    System.out.println("Error updating device: " + e.getMessage());
+                }
+            }
+        }
+        return changed;
+    }
+
+    private static Duration min(Duration a, Duration b) {
+        return a.compareTo(b) <= 0 ? a : b;
+    }
+
+    /**
+     * Stops polling.
+     */
+    @Override
+    public synchronized void close() {
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+}
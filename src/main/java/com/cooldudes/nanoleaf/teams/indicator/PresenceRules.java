@@ -0,0 +1,175 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decides which palette every combination of availability and activity shows.
+ * Rules are read from presence-rules.properties in the resources directory:
+ * <pre>
+ * # Availability.Activity, Availability, *.Activity or * = palette name, or Off
+ * Busy=Busy
+ * DoNotDisturb=Busy
+ * Away=Away
+ * BeRightBack=Away
+ * *.OutOfOffice=OutOfOffice
+ * Offline=Off
+ * *=Available
+ * </pre>
+ * The most specific matching rule wins: an exact pair, then the availability,
+ * then the activity, then {@code *}. Every combination is resolved once into a
+ * table indexed by the two enum ordinals, so looking up a presence is a single
+ * array read.
+ */
+public final class PresenceRules {
+
+    static final String FILE_NAME = "presence-rules.properties";
+    static final String OFF = "Off";
+    private static final String DEFAULT_PALETTE = "Available";
+    private static final Map<String, String> DEFAULT_RULES = Map.of(
+            "Busy", "Busy",
+            "DoNotDisturb", "Busy",
+            "Away", "Away",
+            "BeRightBack", "Away",
+            "*.OutOfOffice", "OutOfOffice",
+            "Offline", OFF,
+            "*", DEFAULT_PALETTE);
+
+    private static volatile PresenceRules instance = new PresenceRules(DEFAULT_RULES);
+
+    /** Palette name per (availability, activity) cell; null means power off. */
+    private final String[] targets;
+    private volatile Compiled compiled;
+
+    private record Compiled(Map<String, NanoleafEffect.PaletteColor[]> source,
+                            NanoleafEffect.PaletteColor[][] palettes) {
+    }
+
+    /**
+     * Resolves every combination of availability and activity up front.
+     *
+     * @param rules rule keys and their palette names, as in presence-rules.properties
+     * @throws IllegalArgumentException if a key names an unknown availability or activity
+     */
+    public PresenceRules(Map<String, String> rules) {
+        for (String key : rules.keySet()) {
+            validateKey(key);
+        }
+        targets = new String[Availability.VALUES.length * Activity.VALUES.length];
+        for (Availability availability : Availability.VALUES) {
+            for (Activity activity : Activity.VALUES) {
+                String target = rules.get(availability.name() + "." + activity.name());
+                if (target == null) {
+                    target = rules.get(availability.name());
+                }
+                if (target == null) {
+                    target = rules.get("*." + activity.name());
+                }
+                if (target == null) {
+                    target = rules.getOrDefault("*", DEFAULT_PALETTE);
+                }
+                target = target.trim();
+                targets[index(availability, activity)] = target.equalsIgnoreCase(OFF) ? null : target;
+            }
+        }
+    }
+
+    /**
+     * Applies presence-rules.properties and keeps applying it whenever the
+     * file changes. The built-in rules are used while the file does not exist.
+     *
+     * @return the rules in use
+     * @throws IOException if the file has an invalid rule
+     */
+    public static PresenceRules load() throws IOException {
+        ConfigService.onChange(FILE_NAME, PresenceRules::apply);
+        try {
+            return apply(ConfigService.get(FILE_NAME));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid rule in " + FILE_NAME + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static PresenceRules apply(Map<String, String> props) {
+        Map<String, String> rules = new HashMap<>();
+        props.forEach((key, value) -> rules.put(key.trim(), value));
+        PresenceRules loaded = new PresenceRules(rules.isEmpty() ? DEFAULT_RULES : rules);
+        install(loaded);
+        return loaded;
+    }
+
+    /**
+     * Replaces the shared rule table.
+     *
+     * @param rules the rules to use for all subsequent lookups
+     */
+    public static void install(PresenceRules rules) {
+        instance = rules;
+    }
+
+    /**
+     * @return the shared rule table
+     */
+    public static PresenceRules get() {
+        return instance;
+    }
+
+    /**
+     * Looks up the palette a presence shows, from the current palette table.
+     *
+     * @param presence the presence
+     * @return the palette, or null if the device should be turned off
+     */
+    NanoleafEffect.PaletteColor[] paletteFor(Presence presence) {
+        Map<String, NanoleafEffect.PaletteColor[]> source = NanoleafShapes.getStatusPalettes();
+        Compiled current = compiled;
+        if (current == null || current.source() != source) {
+            current = compile(source);
+            compiled = current;
+        }
+        return current.palettes()[index(presence.availability, presence.activity)];
+    }
+
+    private Compiled compile(Map<String, NanoleafEffect.PaletteColor[]> source) {
+        NanoleafEffect.PaletteColor[][] palettes = new NanoleafEffect.PaletteColor[targets.length][];
+        Set<String> missing = new HashSet<>();
+        for (int i = 0; i < targets.length; i++) {
+            if (targets[i] == null) {
+                continue;
+            }
+            NanoleafEffect.PaletteColor[] palette = source.get(targets[i]);
+            if (palette == null) {
+                if (missing.add(targets[i])) {
+                    System.err.println("No palette named " + targets[i] + ", using " + DEFAULT_PALETTE);
+                }
+                palette = source.get(DEFAULT_PALETTE);
+            }
+            palettes[i] = palette;
+        }
+        return new Compiled(source, palettes);
+    }
+
+    private static int index(Availability availability, Activity activity) {
+        return availability.ordinal() * Activity.VALUES.length + activity.ordinal();
+    }
+
+    private static void validateKey(String key) {
+        if (key.equals("*")) {
+            return;
+        }
+        int dot = key.indexOf('.');
+        String availability = dot < 0 ? key : key.substring(0, dot);
+        if (!availability.equals("*") && !Availability.fromGraph(availability).name().equals(availability)) {
+            throw new IllegalArgumentException("Unknown availability " + availability);
+        }
+        if (dot >= 0) {
+            String activity = key.substring(dot + 1);
+            if (!Activity.fromGraph(activity).name().equals(activity)) {
+                throw new IllegalArgumentException("Unknown activity " + activity);
+            }
+        }
+    }
+}
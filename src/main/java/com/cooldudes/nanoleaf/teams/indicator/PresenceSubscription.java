@@ -0,0 +1,85 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One Graph presence subscription and the properties file it is persisted in:
+ * the watched user, the {@code clientState} that names its Pusher channel, and
+ * the subscription id and expiration returned by Graph.
+ */
+class PresenceSubscription {
+
+    private final String fileName;
+    private final Map<String, String> props;
+    CompletableFuture<Void> pendingEnsure;
+
+    /**
+     * Reads the subscription from the configuration snapshot. From then on the
+     * values held here are authoritative and are only written back.
+     *
+     * @param fileName file in the resources directory the subscription is saved to
+     */
+    PresenceSubscription(String fileName) {
+        this.fileName = fileName;
+        this.props = new HashMap<>(ConfigService.get(fileName));
+        if (props.isEmpty()) {
+            System.out.println("No subscription properties file found.");
+        }
+    }
+
+    /**
+     * Saves the current values to the properties file.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    synchronized void store() throws IOException {
+        ConfigService.store(fileName, props);
+    }
+
+    synchronized String get(String key) {
+        return props.get(key);
+    }
+
+    synchronized void set(String key, String value) {
+        props.put(key, value);
+    }
+
+    String subscriptionId() {
+        return get("subscriptionId");
+    }
+
+    String clientState() {
+        return get("clientState");
+    }
+
+    String userId() {
+        return get("userId");
+    }
+
+    /**
+     * @return the stored expiration, or null if unknown
+     */
+    ZonedDateTime expiration() {
+        String expStr = get("expirationDateTime");
+        if (expStr == null) {
+            return null;
+        }
+        try {
+            return ZonedDateTime.parse(expStr);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return whether Graph is still delivering notifications for this subscription
+     */
+    boolean isActive() {
+        ZonedDateTime exp = expiration();
+        return exp != null && subscriptionId() != null && ZonedDateTime.now().isBefore(exp);
+    }
+}
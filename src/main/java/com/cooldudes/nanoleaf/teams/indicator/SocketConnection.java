@@ -1,27 +1,52 @@
 package com.cooldudes.nanoleaf.teams.indicator;
 
-import com.nimbusds.oauth2.sdk.util.JSONUtils;
+import com.nimbusds.oauth2.sdk.ParseException;
 import com.pusher.client.Pusher;
 import com.pusher.client.PusherOptions;
 import com.pusher.client.channel.Channel;
 import com.pusher.client.connection.ConnectionEventListener;
 import com.pusher.client.connection.ConnectionState;
 import com.pusher.client.connection.ConnectionStateChange;
-import net.minidev.json.JSONObject;
 
 import javax.naming.ConfigurationException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
 
 /**
  * Handles the Pusher socket connection for receiving Teams presence events.
  */
-public class SocketConnection {
+public class SocketConnection implements NotificationSource {
 
     private String PUSHER_KEY;
     private String PUSHER_CLUSTER;
+    private static final Duration SETTLE_WINDOW = Duration.ofMillis(250);
     private final Pusher pusher;
+    private final List<Route> routes;
+    private final Map<String, EventPipeline> pipelines = new LinkedHashMap<>();
+    private final List<Runnable> connectionListeners = new CopyOnWriteArrayList<>();
+    private final EventRecorder recorder = EventRecorder.fromSystemProperty();
+
+    /**
+     * Connects one Pusher channel to the handler for its presence events and
+     * the Graph subscription that feeds it.
+     *
+     * @param clientState  client state naming the {@code status-changes-<clientState>} channel
+     * @param handler      handler for presence status changes on the channel
+     * @param ensureActive makes sure the channel's subscription exists
+     * @param reauthorize  extends the channel's subscription
+     */
+    public record Route(String clientState, StatusChangeHandler handler,
+                        Supplier<CompletableFuture<Void>> ensureActive,
+                        Supplier<CompletableFuture<Void>> reauthorize) {
+    }
 
     /**
      * Creates a new socket connection and subscribes to presence events.
@@ -32,31 +57,25 @@ public class SocketConnection {
      *                                to connect
      */
     public SocketConnection(String clientState, StatusChangeHandler changeHandler) throws ConfigurationException {
+        this(List.of(new Route(clientState, changeHandler,
+                Graph::ensureActiveSubscriptionAsync, Graph::updateSubscriptionAsync)));
+    }
+
+    /**
+     * Creates a single socket connection subscribed to every route's channel.
+     *
+     * @param routes the channels to subscribe to
+     * @throws ConfigurationException if properties cannot be loaded or Pusher fails
+     *                                to connect
+     */
+    public SocketConnection(List<Route> routes) throws ConfigurationException {
+        this.routes = List.copyOf(routes);
         try {
             setupProperties();
             pusher = getPusher();
-            Channel channel = pusher.subscribe("status-changes-" + clientState);
-            channel.bind("status-update", pusherEvent -> {
-                try {
-                    JSONObject eventObject = (JSONObject) JSONUtils.parseJSON(pusherEvent.getData());
-                    EncryptedData data = new EncryptedData(eventObject);
-                    Presence presence = data.decryptData();
-                    System.out.println(presence.toString());
-                    changeHandler.handleStatusChange(presence);
-                } catch (Exception ex) {
-                    System.out.println("Error parsing event data: " + ex.getMessage() + ", " + ex.getStackTrace()[0]);
-                }
-            });
-
-            channel.bind("reauth-required", _ -> {
-                System.out.println("Reauthorizing...");
-                try {
-                    Graph.updateSubscription();
-                } catch (SubscriptionException e) {
-                    System.err.println("Error reauthorizing: " + e.getMessage());
-                }
-            });
-
+            for (Route route : this.routes) {
+                subscribe(route);
+            }
         } catch (IOException e) {
             throw new ConfigurationException("Could not read property values: " + e.getMessage());
         } catch (Exception e) {
@@ -65,6 +84,41 @@ public class SocketConnection {
 
     }
 
+    private void subscribe(Route route) {
+        EventPipeline pipeline = EventPipeline.start(route.handler(), SETTLE_WINDOW);
+        pipelines.put(route.clientState(), pipeline);
+        Channel channel = pusher.subscribe("status-changes-" + route.clientState());
+        channel.bind("status-update", pusherEvent -> {
+            if (recorder != null) {
+                recorder.record(route.clientState(), pusherEvent.getData());
+            }
+            pipeline.submit(pusherEvent.getData());
+        });
+
+        channel.bind("reauth-required", _ -> {
+            System.out.println("Reauthorizing...");
+            route.reauthorize().get().exceptionally(e -> {
+                System.err.println("Error reauthorizing: " + e.getMessage());
+                return null;
+            });
+        });
+    }
+
+    /**
+     * Parses the JSON envelope of a {@code status-update} event.
+     *
+     * @param eventData raw event payload received from Pusher
+     * @return the encrypted resource data carried by the event
+     * @throws ParseException if the payload is not valid JSON
+     */
+    static EncryptedData parseEnvelope(String eventData) throws ParseException {
+        try {
+            return EncryptedData.parse(eventData);
+        } catch (IllegalArgumentException e) {
+            throw new ParseException(e.getMessage(), e);
+        }
+    }
+
     /**
      * Opens a connection to Pusher.
      * 
@@ -80,7 +134,7 @@ public class SocketConnection {
             public void onConnectionStateChange(ConnectionStateChange change) {
                 System.out.println("State changed to " + change.getCurrentState() +
                         " from " + change.getPreviousState());
-
+                connectionListeners.forEach(Runnable::run);
             }
 
             @Override
@@ -91,13 +145,17 @@ public class SocketConnection {
         }, ConnectionState.ALL);
         pusher.getConnection().bind(ConnectionState.CONNECTED, new ConnectionEventListener() {
             @Override
-            public void onConnectionStateChange(ConnectionStateChange change) {    
-                try {      
-                    Graph.ensureActiveSubscription();
-                } catch (Exception e) {
-                    System.err.println("Error ensuring active subscription: " + e.getMessage());
-                    disconnect();
-                    System.exit(0);
+            public void onConnectionStateChange(ConnectionStateChange change) {
+                for (Route route : routes) {
+                    route.ensureActive().get().exceptionally(e -> {
+                        System.err.println("Error ensuring active subscription for " + route.clientState() + ": " + e.getMessage());
+                        // A single user has nothing to show without it; a daemon keeps serving the others
+                        if (routes.size() == 1) {
+                            disconnect();
+                            System.exit(0);
+                        }
+                        return null;
+                    });
                 }
             }
 
@@ -128,11 +186,32 @@ public class SocketConnection {
 
     }
 
-    /**
-     * Disconnects from Pusher.
-     */
+    @Override
+    public boolean isConnected() {
+        return pusher.getConnection().getState() == ConnectionState.CONNECTED;
+    }
+
+    @Override
+    public void onConnectionChange(Runnable listener) {
+        connectionListeners.add(listener);
+    }
+
+    @Override
+    public StatusChangeHandler publisher(String clientState) {
+        EventPipeline pipeline = pipelines.get(clientState);
+        if (pipeline == null) {
+            throw new IllegalArgumentException("No channel for client state " + clientState);
+        }
+        return pipeline::publish;
+    }
+
+    @Override
     public void disconnect() {
         pusher.disconnect();
+        pipelines.values().forEach(EventPipeline::close);
+        if (recorder != null) {
+            recorder.close();
+        }
     }
 
     /**
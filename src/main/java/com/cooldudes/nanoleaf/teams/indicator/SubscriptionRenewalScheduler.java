@@ -0,0 +1,170 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Renews Graph subscriptions on a timer, a configurable lead time before each
+ * one expires, instead of waiting for Pusher to reconnect or ask for
+ * reauthorization. A renewal is never due earlier than halfway through the
+ * subscription's remaining lifetime, so a lead time as long as the lifetime
+ * cannot make it renew in a tight loop. Failed renewals are retried with
+ * jittered exponential backoff, and every attempt is kept in a short history.
+ */
+class SubscriptionRenewalScheduler {
+
+    private static final int HISTORY_SIZE = 100;
+
+    private final Duration leadTime;
+    private final Duration retryBase;
+    private final Duration retryMax;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "subscription-renewal");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Map<String, ScheduledFuture<?>> scheduled = new ConcurrentHashMap<>();
+    private final ArrayDeque<RenewalAttempt> history = new ArrayDeque<>();
+
+    /**
+     * One renewal attempt.
+     *
+     * @param subscription name the subscription was tracked under
+     * @param dueAt        when the renewal was scheduled to run
+     * @param startedAt    when it actually started
+     * @param finishedAt   when Graph answered or the attempt failed
+     * @param attempt      1 for the scheduled run, higher for retries
+     * @param succeeded    whether the subscription was renewed
+     * @param error        failure message, or null on success
+     */
+    record RenewalAttempt(String subscription, Instant dueAt, Instant startedAt, Instant finishedAt,
+                          int attempt, boolean succeeded, String error) {
+
+        /**
+         * @return how long after its due time the attempt started
+         */
+        Duration lateness() {
+            return Duration.between(dueAt, startedAt);
+        }
+    }
+
+    /**
+     * @param leadTime  how long before expiration to renew
+     * @param retryBase delay before the first retry of a failed renewal
+     * @param retryMax  upper bound for the retry delay
+     */
+    SubscriptionRenewalScheduler(Duration leadTime, Duration retryBase, Duration retryMax) {
+        this.leadTime = leadTime;
+        this.retryBase = retryBase;
+        this.retryMax = retryMax;
+    }
+
+    /**
+     * Starts renewing a subscription. Its expiration is read again after every
+     * successful renewal to schedule the next one.
+     *
+     * @param name       name to record attempts under
+     * @param expiration supplies the current expiration, or null if unknown
+     * @param renew      performs the renewal
+     */
+    void track(String name, Supplier<ZonedDateTime> expiration, Supplier<CompletableFuture<Void>> renew) {
+        scheduleNext(name, expiration, renew);
+    }
+
+    /**
+     * Stops renewing a subscription.
+     *
+     * @param name name the subscription was tracked under
+     */
+    void untrack(String name) {
+        ScheduledFuture<?> future = scheduled.remove(name);
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * @return the most recent renewal attempts, oldest first
+     */
+    List<RenewalAttempt> history() {
+        synchronized (history) {
+            return new ArrayList<>(history);
+        }
+    }
+
+    private void scheduleNext(String name, Supplier<ZonedDateTime> expiration, Supplier<CompletableFuture<Void>> renew) {
+        ZonedDateTime expiresAt = expiration.get();
+        Instant now = Instant.now();
+        Instant dueAt = now;
+        if (expiresAt != null && expiresAt.toInstant().isAfter(now)) {
+            Instant halfway = now.plus(Duration.between(now, expiresAt.toInstant()).dividedBy(2));
+            Instant beforeLead = expiresAt.toInstant().minus(leadTime);
+            dueAt = beforeLead.isAfter(halfway) ? beforeLead : halfway;
+        }
+        schedule(name, dueAt, 1, expiration, renew);
+    }
+
+    private void schedule(String name, Instant dueAt, int attempt,
+                          Supplier<ZonedDateTime> expiration, Supplier<CompletableFuture<Void>> renew) {
+        long delay = Math.max(0, Duration.between(Instant.now(), dueAt).toMillis());
+        scheduled.put(name, scheduler.schedule(() -> run(name, dueAt, attempt, expiration, renew),
+                delay, TimeUnit.MILLISECONDS));
+    }
+
+    private void run(String name, Instant dueAt, int attempt,
+                     Supplier<ZonedDateTime> expiration, Supplier<CompletableFuture<Void>> renew) {
+        Instant startedAt = Instant.now();
+        CompletableFuture<Void> result;
+        try {
+            result = renew.get();
+        } catch (Exception e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        result.whenComplete((_, error) -> {
+            RenewalAttempt record = new RenewalAttempt(name, dueAt, startedAt, Instant.now(), attempt,
+                    error == null, error == null ? null : error.getMessage());
+            record(record);
+            if (!scheduled.containsKey(name)) {
+                return;
+            }
+            if (error == null) {
+                scheduleNext(name, expiration, renew);
+            } else {
+                schedule(name, Instant.now().plus(retryDelay(attempt)), attempt + 1, expiration, renew);
+            }
+        });
+    }
+
+    /**
+     * Exponential backoff with full jitter.
+     */
+    private Duration retryDelay(int attempt) {
+        long ceiling = retryBase.toMillis() << Math.min(attempt - 1, 16);
+        ceiling = Math.min(ceiling, retryMax.toMillis());
+        return Duration.ofMillis(ThreadLocalRandom.current().nextLong(retryBase.toMillis(), Math.max(ceiling, retryBase.toMillis()) + 1));
+    }
+
+    private void record(RenewalAttempt attempt) {
+        Metrics.renewal(attempt.succeeded());
+        synchronized (history) {
+            if (history.size() == HISTORY_SIZE) {
+                history.removeFirst();
+            }
+            history.addLast(attempt);
+        }
+        if (attempt.succeeded()) {
+            System.out.printf("Renewed %s (attempt %d, %d ms after due)%n",
+                    attempt.subscription(), attempt.attempt(), attempt.lateness().toMillis());
+        } else {
+            System.err.printf("Renewal of %s failed (attempt %d): %s%n",
+                    attempt.subscription(), attempt.attempt(), attempt.error());
+        }
+    }
+}
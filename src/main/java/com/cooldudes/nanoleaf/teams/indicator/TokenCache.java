@@ -0,0 +1,155 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+import com.microsoft.aad.msal4j.ITokenCacheAccessAspect;
+import com.microsoft.aad.msal4j.ITokenCacheAccessContext;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Keeps MSAL's token cache on disk between runs, so a restart signs in
+ * silently instead of opening the browser. The cache is encrypted with
+ * AES-GCM under a random key kept next to it in a file only the owner can
+ * read; the tokens are never written in the clear.
+ * <p>
+ * The file is read once, on MSAL's first access, and written back every time
+ * MSAL changed the cache. A cache that cannot be decrypted is ignored and the
+ * user is asked to sign in again.
+ */
+final class TokenCache implements ITokenCacheAccessAspect {
+
+    static final String CACHE_FILE = "msal-cache.bin";
+    static final String KEY_FILE = "msal-cache.key";
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int KEY_BYTES = 32;
+    private static final int IV_BYTES = 12;
+    private static final int TAG_BITS = 128;
+    private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rw-------");
+
+    private final Path cacheFile;
+    private final Path keyFile;
+    private final SecureRandom random = new SecureRandom();
+    private SecretKeySpec key;
+    private boolean loaded;
+
+    /**
+     * @param dir directory to keep the cache and its key in
+     */
+    TokenCache(Path dir) {
+        this.cacheFile = dir.resolve(CACHE_FILE);
+        this.keyFile = dir.resolve(KEY_FILE);
+    }
+
+    @Override
+    public synchronized void beforeCacheAccess(ITokenCacheAccessContext context) {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!Files.exists(cacheFile)) {
+            return;
+        }
+        try {
+            byte[] stored = Files.readAllBytes(cacheFile);
+            context.tokenCache().deserialize(new String(decrypt(stored), StandardCharsets.UTF_8));
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            System.err.println("Ignoring unreadable token cache: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void afterCacheAccess(ITokenCacheAccessContext context) {
+        if (!context.hasCacheChanged()) {
+            return;
+        }
+        try {
+            byte[] encrypted = encrypt(context.tokenCache().serialize().getBytes(StandardCharsets.UTF_8));
+            Path temp = cacheFile.resolveSibling(CACHE_FILE + ".tmp");
+            Files.deleteIfExists(temp);
+            createOwnerOnly(temp);
+            Files.write(temp, encrypted);
+            Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | GeneralSecurityException e) {
+            System.err.println("Could not save token cache: " + e.getMessage());
+        }
+    }
+
+    private byte[] encrypt(byte[] plain) throws IOException, GeneralSecurityException {
+        byte[] iv = new byte[IV_BYTES];
+        random.nextBytes(iv);
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, key(), new GCMParameterSpec(TAG_BITS, iv));
+        byte[] sealed = cipher.doFinal(plain);
+        byte[] stored = Arrays.copyOf(iv, IV_BYTES + sealed.length);
+        System.arraycopy(sealed, 0, stored, IV_BYTES, sealed.length);
+        return stored;
+    }
+
+    private byte[] decrypt(byte[] stored) throws IOException, GeneralSecurityException {
+        if (stored.length <= IV_BYTES) {
+            throw new GeneralSecurityException("Token cache is truncated");
+        }
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, key(), new GCMParameterSpec(TAG_BITS, stored, 0, IV_BYTES));
+        return cipher.doFinal(stored, IV_BYTES, stored.length - IV_BYTES);
+    }
+
+    /**
+     * Reads the key, creating it on first use.
+     */
+    private SecretKeySpec key() throws IOException {
+        if (key != null) {
+            return key;
+        }
+        byte[] bytes;
+        if (Files.exists(keyFile)) {
+            bytes = Files.readAllBytes(keyFile);
+            if (bytes.length != KEY_BYTES) {
+                throw new IOException(keyFile + " is not a token cache key");
+            }
+        } else {
+            bytes = new byte[KEY_BYTES];
+            random.nextBytes(bytes);
+            Files.createDirectories(keyFile.getParent());
+            // Written aside and moved into place, so a failed write never leaves a short key behind
+            Path temp = keyFile.resolveSibling(KEY_FILE + ".tmp");
+            Files.deleteIfExists(temp);
+            createOwnerOnly(temp);
+            try {
+                Files.write(temp, bytes);
+                Files.move(temp, keyFile, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        key = new SecretKeySpec(bytes, "AES");
+        return key;
+    }
+
+    /**
+     * Creates an empty file that only the current user can read or write.
+     */
+    private static void createOwnerOnly(Path path) throws IOException {
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+        } else {
+            Files.createFile(path);
+            var file = path.toFile();
+            // Best effort where POSIX permissions are not supported, e.g. on Windows
+            file.setReadable(false, false);
+            file.setWritable(false, false);
+            file.setReadable(true, true);
+            file.setWritable(true, true);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+import com.microsoft.aad.msal4j.*;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Keeps a Graph access token fresh in the background. The token is refreshed
+ * silently shortly before it expires, and concurrent callers that need a new
+ * token share a single in-flight refresh. The background refresh never asks
+ * the user to sign in; if it fails the token is left to expire, and the user
+ * is only asked once Graph rejects it.
+ */
+class TokenManager {
+
+    private static final Duration REFRESH_LEAD = Duration.ofMinutes(5);
+    private static final Duration MIN_REFRESH_DELAY = Duration.ofSeconds(30);
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "token-refresh");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final PublicClientApplication app;
+    private final Set<String> scopes;
+    private final AtomicReference<CompletableFuture<String>> silentInFlight = new AtomicReference<>();
+    private final AtomicReference<CompletableFuture<String>> interactiveInFlight = new AtomicReference<>();
+    private volatile String accessToken;
+    private volatile IAccount account;
+    private ScheduledFuture<?> scheduledRefresh;
+
+    /**
+     * @param app    the MSAL application used to acquire tokens
+     * @param scopes Graph scopes to request
+     */
+    TokenManager(PublicClientApplication app, Set<String> scopes) {
+        this.app = app;
+        this.scopes = scopes;
+    }
+
+    /**
+     * Signs the user in and starts background refresh. An account still held
+     * in the token cache is signed in silently; otherwise the user is asked to
+     * sign in interactively.
+     *
+     * @param homeAccountId the account signed in with last time, or null if none
+     * @return the authentication result
+     * @throws URISyntaxException if the redirect URI is invalid
+     */
+    IAuthenticationResult login(String homeAccountId) throws URISyntaxException {
+        IAuthenticationResult result = null;
+        if (homeAccountId != null) {
+            try {
+                result = acquireFromCache(homeAccountId);
+            } catch (Exception e) {
+                System.out.println("Silent sign-in failed: " + e.getMessage());
+            }
+        }
+        if (result == null) {
+            result = requestUserLogin();
+        }
+        accept(result);
+        return result;
+    }
+
+    /**
+     * Gets a token for a cached account without user interaction. MSAL answers
+     * from the cache while the access token is valid and uses the refresh
+     * token otherwise.
+     *
+     * @return the result, or null if the account is not in the cache
+     */
+    private IAuthenticationResult acquireFromCache(String homeAccountId) throws Exception {
+        for (IAccount cached : app.getAccounts().join()) {
+            if (cached.homeAccountId().equals(homeAccountId)) {
+                return app.acquireTokenSilently(SilentParameters.builder(scopes, cached).build()).join();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the cached access token without waiting on the network.
+     *
+     * @return the current access token, or null before the first login
+     */
+    String accessToken() {
+        return accessToken;
+    }
+
+    /**
+     * @return the signed-in account, or null before the first login
+     */
+    IAccount account() {
+        return account;
+    }
+
+    /**
+     * Gets a token to retry with after Graph rejected {@code rejectedToken}. If
+     * another caller already replaced that token the current one is returned
+     * right away; otherwise the caller joins the shared refresh.
+     *
+     * @param rejectedToken the token that received a 401
+     * @return a future completed with a usable access token
+     */
+    CompletableFuture<String> refreshAfterUnauthorized(String rejectedToken) {
+        String current = accessToken;
+        if (current != null && !current.equals(rejectedToken)) {
+            return CompletableFuture.completedFuture(current);
+        }
+        return refresh();
+    }
+
+    /**
+     * Refreshes the access token, asking the user to sign in again if it
+     * cannot be refreshed silently.
+     *
+     * @return a future completed with the new access token
+     */
+    private CompletableFuture<String> refresh() {
+        return refreshSilently().exceptionallyCompose(error -> {
+            System.out.println("Silent token acquisition failed: " + error.getMessage());
+            return shared(interactiveInFlight, () -> CompletableFuture.supplyAsync(() -> {
+                try {
+                    return requestUserLogin();
+                } catch (Exception ex) {
+                    throw new CompletionException(
+                            new RuntimeException("Failed to acquire new token interactively: " + ex.getMessage(), ex));
+                }
+            }));
+        });
+    }
+
+    /**
+     * Refreshes the access token without user interaction.
+     *
+     * @return a future completed with the new access token
+     */
+    private CompletableFuture<String> refreshSilently() {
+        return shared(silentInFlight, this::acquireSilently);
+    }
+
+    /**
+     * Runs one acquisition at a time; callers arriving while it is running
+     * receive the same future.
+     */
+    private CompletableFuture<String> shared(AtomicReference<CompletableFuture<String>> inFlight,
+                                             Supplier<CompletableFuture<IAuthenticationResult>> acquire) {
+        CompletableFuture<String> created = new CompletableFuture<>();
+        CompletableFuture<String> existing = inFlight.compareAndExchange(null, created);
+        if (existing != null) {
+            return existing;
+        }
+        acquire.get().whenComplete((result, error) -> {
+            Metrics.tokenRefresh(error == null);
+            if (error == null) {
+                accept(result);
+            }
+            inFlight.set(null);
+            if (error == null) {
+                created.complete(result.accessToken());
+            } else {
+                created.completeExceptionally(error);
+            }
+        });
+        return created;
+    }
+
+    private CompletableFuture<IAuthenticationResult> acquireSilently() {
+        try {
+            SilentParameters parameters = SilentParameters.builder(scopes)
+                    .account(account)
+                    .forceRefresh(true)
+                    .build();
+            return app.acquireTokenSilently(parameters);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private IAuthenticationResult requestUserLogin() throws URISyntaxException {
+        // Request authentication interactively
+        InteractiveRequestParameters parameters = InteractiveRequestParameters.builder(
+                        new URI("http://localhost:8080")) // Redirect URI registered in Entra ID
+                .scopes(scopes)
+                .build();
+
+        return app.acquireToken(parameters).join();
+    }
+
+    private synchronized void accept(IAuthenticationResult result) {
+        accessToken = result.accessToken();
+        account = result.account();
+        if (scheduledRefresh != null) {
+            scheduledRefresh.cancel(false);
+        }
+        Instant expiresAt = result.expiresOnDate().toInstant();
+        Instant refreshAt = expiresAt.minus(REFRESH_LEAD);
+        Duration delay = Duration.between(Instant.now(), refreshAt);
+        if (delay.compareTo(MIN_REFRESH_DELAY) < 0) {
+            delay = MIN_REFRESH_DELAY;
+        }
+        scheduledRefresh = SCHEDULER.schedule(() -> refreshSilently().exceptionally(e -> {
+            System.err.println("Background token refresh failed, token expires at " + expiresAt + ": "
+                    + e.getMessage());
+            return null;
+        }), delay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+}
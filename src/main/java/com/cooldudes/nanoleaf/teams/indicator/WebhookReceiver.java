@@ -0,0 +1,279 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Receives Graph change and lifecycle notifications directly over HTTP,
+ * instead of through the relay at {@code subUrl} and Pusher. Point
+ * {@code subUrl} at {@code /notifications} and {@code lifecycleUrl} at
+ * {@code /lifecycle} on the address this receiver is reachable at.
+ * <p>
+ * Graph only delivers to an HTTPS {@code notificationUrl}, but the receiver
+ * speaks plain HTTP. Run it behind a TLS-terminating reverse proxy that
+ * forwards both paths. By default it only listens on the loopback interface,
+ * for a proxy on the same host; set {@code -Dwebhook.bind} to another local
+ * address only if the proxy runs elsewhere.
+ * <p>
+ * A webhook cannot tell when Graph stops delivering, so delivery counts as up
+ * only while a notification carrying one of the channels' client states has
+ * arrived within the last {@code webhook.deliveryWindowMinutes} (30 by
+ * default). Validation requests carry no client state, so anyone could send
+ * one; they are only answered and do not count as delivery. Outside that
+ * window {@link #isConnected()} is false and the presence poller takes over.
+ * <p>
+ * Requests are handled on virtual threads. Encrypted content goes into the
+ * same {@link EventPipeline} a Pusher event would. To try it locally, post a
+ * recorded notification:
+ * <pre>
+ * curl -X POST -H 'Content-Type: application/json' \
+ *      --data @notification.json http://localhost:8443/notifications
+ * </pre>
+ */
+public class WebhookReceiver implements NotificationSource {
+
+    private static final Duration SETTLE_WINDOW = Duration.ofMillis(250);
+    private static final Duration DELIVERY_WINDOW =
+            Duration.ofMinutes(Long.getLong("webhook.deliveryWindowMinutes", 30));
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "webhook-delivery");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final HttpServer server;
+    private final Map<String, SocketConnection.Route> routes = new LinkedHashMap<>();
+    private final Map<String, EventPipeline> pipelines = new LinkedHashMap<>();
+    private final List<Runnable> connectionListeners = new CopyOnWriteArrayList<>();
+    private volatile boolean running;
+    private boolean delivering;
+    private long lastDeliveryNanos;
+    private boolean expiryScheduled;
+
+    /**
+     * Binds the receiver without accepting requests yet; see {@link #start()}.
+     *
+     * @param bindAddress local address to listen on, normally loopback behind a reverse proxy
+     * @param port        port to listen on, 0 for any free port
+     * @param routes      the channels to accept notifications for
+     * @throws IOException if the port cannot be bound
+     */
+    public WebhookReceiver(InetAddress bindAddress, int port, List<SocketConnection.Route> routes) throws IOException {
+        for (SocketConnection.Route route : routes) {
+            this.routes.put(route.clientState(), route);
+            pipelines.put(route.clientState(), EventPipeline.start(route.handler(), SETTLE_WINDOW));
+        }
+        server = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    /**
+     * Starts accepting requests and then makes sure every route's subscription
+     * exists, so Graph can validate the notification URL while it is created.
+     */
+    public void start() {
+        server.createContext("/notifications", this::handle);
+        server.createContext("/lifecycle", this::handle);
+        server.start();
+        running = true;
+        System.out.println("Receiving notifications on " + server.getAddress());
+        for (SocketConnection.Route route : routes.values()) {
+            route.ensureActive().get().exceptionally(e -> {
+                System.err.println("Error ensuring active subscription for " + route.clientState() + ": " + e.getMessage());
+                return null;
+            });
+        }
+    }
+
+    /**
+     * @return the port the receiver listens on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String validationToken = queryParameter(exchange.getRequestURI().getRawQuery(), "validationToken");
+            if (validationToken != null) {
+                // Graph checks the endpoint by expecting its token echoed back as plain text
+                respond(exchange, 200, "text/plain", validationToken);
+                return;
+            }
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, "text/plain", "");
+                return;
+            }
+            List<Notification> notifications;
+            try (InputStream in = exchange.getRequestBody()) {
+                notifications = Notification.parseAll(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            } catch (Exception e) {
+                respond(exchange, 400, "text/plain", "Invalid notification");
+                return;
+            }
+            // Acknowledge first; every notification below is handed off without blocking
+            respond(exchange, 202, "text/plain", "");
+            if (dispatch(notifications)) {
+                delivered();
+            }
+        }
+    }
+
+    /**
+     * Records that Graph delivered a notification for one of the channels,
+     * and reports delivery as up if it was down.
+     */
+    private void delivered() {
+        boolean changed;
+        synchronized (this) {
+            lastDeliveryNanos = System.nanoTime();
+            changed = !delivering;
+            delivering = true;
+            if (!expiryScheduled) {
+                expiryScheduled = true;
+                SCHEDULER.schedule(this::checkDelivery, DELIVERY_WINDOW.toNanos(), TimeUnit.NANOSECONDS);
+            }
+        }
+        if (changed) {
+            System.out.println("Receiving notifications from Graph.");
+            connectionListeners.forEach(Runnable::run);
+        }
+    }
+
+    /**
+     * Reports delivery as down once nothing has arrived for a whole window.
+     */
+    private void checkDelivery() {
+        synchronized (this) {
+            long remaining = lastDeliveryNanos + DELIVERY_WINDOW.toNanos() - System.nanoTime();
+            if (remaining > 0) {
+                SCHEDULER.schedule(this::checkDelivery, remaining, TimeUnit.NANOSECONDS);
+                return;
+            }
+            expiryScheduled = false;
+            delivering = false;
+        }
+        System.out.println("No notifications for " + DELIVERY_WINDOW.toMinutes() + " min, polling presence.");
+        connectionListeners.forEach(Runnable::run);
+    }
+
+    /**
+     * Hands each channel its change notifications as one batch, and acts on
+     * lifecycle notifications.
+     *
+     * @return whether any notification was for one of the channels
+     */
+    private boolean dispatch(List<Notification> notifications) {
+        Map<String, List<EncryptedData>> changes = new LinkedHashMap<>();
+        boolean matched = false;
+        for (Notification notification : notifications) {
+            SocketConnection.Route route = notification.clientState() == null ? null : routes.get(notification.clientState());
+            if (route == null) {
+                System.err.println("Ignoring notification with unknown client state");
+                continue;
+            }
+            matched = true;
+            if (notification.lifecycleEvent() != null) {
+                handleLifecycle(route, notification.lifecycleEvent());
+            } else if (notification.content() != null) {
+                changes.computeIfAbsent(route.clientState(), _ -> new ArrayList<>()).add(notification.content());
+            }
+        }
+        changes.forEach((clientState, contents) -> pipelines.get(clientState).submit(contents));
+        return matched;
+    }
+
+    private void handleLifecycle(SocketConnection.Route route, String lifecycleEvent) {
+        switch (lifecycleEvent) {
+            case "reauthorizationRequired" -> {
+                System.out.println("Reauthorizing...");
+                route.reauthorize().get().exceptionally(e -> {
+                    System.err.println("Error reauthorizing: " + e.getMessage());
+                    return null;
+                });
+            }
+            case "subscriptionRemoved" -> {
+                System.out.println("Subscription removed. Creating a new one...");
+                route.ensureActive().get().exceptionally(e -> {
+                    System.err.println("Error recreating subscription: " + e.getMessage());
+                    return null;
+                });
+            }
+            default -> System.out.println("Lifecycle event for " + route.clientState() + ": " + lifecycleEvent);
+        }
+    }
+
+    private static String queryParameter(String rawQuery, String name) {
+        if (rawQuery == null) {
+            return null;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && pair.substring(0, eq).equals(name)) {
+                return URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, String text) throws IOException {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    /**
+     * @return whether Graph has reached the receiver within the delivery window
+     */
+    @Override
+    public synchronized boolean isConnected() {
+        return running && delivering;
+    }
+
+    @Override
+    public void onConnectionChange(Runnable listener) {
+        connectionListeners.add(listener);
+    }
+
+    @Override
+    public StatusChangeHandler publisher(String clientState) {
+        EventPipeline pipeline = pipelines.get(clientState);
+        if (pipeline == null) {
+            throw new IllegalArgumentException("No channel for client state " + clientState);
+        }
+        return pipeline::publish;
+    }
+
+    @Override
+    public void disconnect() {
+        running = false;
+        synchronized (this) {
+            delivering = false;
+        }
+        connectionListeners.forEach(Runnable::run);
+        server.stop(0);
+        pipelines.values().forEach(EventPipeline::close);
+    }
+}
@@ -0,0 +1,91 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that every request sent through {@link GraphBatcher} completes, even
+ * when the {@code $batch} response is malformed.
+ */
+class GraphBatcherTest {
+
+    private static HttpServer server;
+    private static volatile String batchResponse;
+
+    @BeforeAll
+    static void startGraph() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/v1.0/$batch", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            byte[] bytes = batchResponse.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, bytes.length);
+            exchange.getResponseBody().write(bytes);
+            exchange.close();
+        });
+        server.start();
+        // Read once when GraphTransport is first used, which is after this
+        System.setProperty("graph.baseUrl", "http://127.0.0.1:" + server.getAddress().getPort() + "/v1.0");
+    }
+
+    @AfterAll
+    static void stopGraph() {
+        server.stop(0);
+    }
+
+    @Test
+    void completesWithItemStatus() throws Exception {
+        batchResponse = "{\"responses\":[{\"id\":\"0\",\"status\":201,\"body\":{\"id\":\"sub\"}}]}";
+        GraphBatcher.Response response = submit().get(5, TimeUnit.SECONDS);
+        assertEquals(201, response.status());
+        assertEquals("{\"id\":\"sub\"}", response.body());
+    }
+
+    @Test
+    void sendsALoneRequestWithoutLinger() throws Exception {
+        batchResponse = "{\"responses\":[{\"id\":\"0\",\"status\":204}]}";
+        GraphBatcher batcher = new GraphBatcher(new TokenManager(null, Set.of()), Duration.ofMinutes(1));
+        CompletableFuture<GraphBatcher.Response> response =
+                batcher.submit(new GraphBatcher.Request("DELETE", "/subscriptions/sub", null));
+        assertEquals(204, response.get(5, TimeUnit.SECONDS).status());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "{\"responses\":[{\"id\":\"0\",\"status\":201,\"body\":{\"id\":\"su",
+            "{}",
+            "{\"responses\":{}}",
+            "{\"responses\":[\"0\"]}",
+            "{\"responses\":[{\"id\":\"0\"}]}",
+            "{\"responses\":[{\"id\":\"zero\",\"status\":201}]}",
+            "{\"responses\":[{\"id\":\"7\",\"status\":201}]}",
+            "{\"responses\":[{\"status\":201}]}"
+    })
+    void failsInsteadOfHangingOnMalformedResponse(String body) {
+        batchResponse = body;
+        CompletableFuture<GraphBatcher.Response> response = submit();
+        assertThrows(ExecutionException.class, () -> response.get(5, TimeUnit.SECONDS));
+    }
+
+    private static CompletableFuture<GraphBatcher.Response> submit() {
+        GraphBatcher batcher = new GraphBatcher(new TokenManager(null, Set.of()), Duration.ofMillis(10));
+        return batcher.submit(new GraphBatcher.Request("DELETE", "/subscriptions/sub", null));
+    }
+}
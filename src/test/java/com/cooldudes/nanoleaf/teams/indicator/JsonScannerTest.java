@@ -0,0 +1,60 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that {@link JsonScanner} reads well-formed objects and reports every
+ * kind of malformed input the same way.
+ */
+class JsonScannerTest {
+
+    @Test
+    void readsStringsAndSkipsNestedValues() {
+        JsonScanner scanner = new JsonScanner("{\"skip\":{\"a\":[1,{\"b\":\"}\"}]},\"name\":\"caf\\u00e9\\n\"}");
+        scanner.beginObject();
+        String name = null;
+        while (scanner.nextField()) {
+            if (scanner.fieldIs("name")) {
+                name = scanner.stringValue();
+            } else {
+                scanner.skipValue();
+            }
+        }
+        assertEquals("café\n", name);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "{\"skip\":{\"a\":[1,2",
+            "{\"skip\":[[[",
+            "{\"skip\":{\"a\":\"b",
+            "{\"name\":\"\\u00\"}",
+            "{\"name\":\"\\u",
+            "{\"name\":\"\\uzzzz\"}",
+            "{\"name\"",
+            "{"
+    })
+    void rejectsMalformedInputWithIllegalArgumentException(String json) {
+        assertThrows(IllegalArgumentException.class, () -> readAll(new JsonScanner(json)));
+        assertThrows(IllegalArgumentException.class,
+                () -> readAll(JsonScanner.ofAscii(json.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    private static void readAll(JsonScanner scanner) {
+        scanner.beginObject();
+        while (scanner.nextField()) {
+            if (scanner.fieldIs("name")) {
+                scanner.stringValue();
+            } else {
+                scanner.skipValue();
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.cooldudes.nanoleaf.teams.indicator;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Drives {@link NanoleafShapesAsync} against a local controller that answers
+ * slowly and records every request.
+ */
+class NanoleafShapesAsyncTest {
+
+    private static final String TOKEN = "test";
+
+    private static HttpServer server;
+    private static final List<String> requests = new CopyOnWriteArrayList<>();
+    private static final AtomicInteger running = new AtomicInteger();
+    private static final AtomicInteger maxRunning = new AtomicInteger();
+    private static volatile int status = 204;
+
+    @BeforeAll
+    static void startController() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/api/v1/" + TOKEN + "/", NanoleafShapesAsyncTest::handle);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+        // Read once when NanoleafShapes is first used, which is after this
+        System.setProperty("nanoleaf.port", Integer.toString(server.getAddress().getPort()));
+    }
+
+    @AfterAll
+    static void stopController() {
+        server.stop(0);
+    }
+
+    @BeforeEach
+    void reset() {
+        requests.clear();
+        maxRunning.set(0);
+        status = 204;
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+        try (exchange) {
+            exchange.getRequestBody().readAllBytes();
+            requests.add(exchange.getRequestMethod() + " "
+                    + exchange.getRequestURI().getPath().substring(("/api/v1/" + TOKEN).length()));
+            Thread.sleep(50);
+            exchange.sendResponseHeaders(status, -1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            running.decrementAndGet();
+        }
+    }
+
+    @Test
+    void appliesAPresenceWithOneEffectWrite() throws Exception {
+        NanoleafShapesAsync device = new NanoleafShapesAsync(new NanoleafShapes("127.0.0.1", TOKEN, null, null));
+        device.applyAsync(new Presence("Busy", "InACall")).get(5, TimeUnit.SECONDS);
+        assertEquals(List.of("PUT /effects"), requests);
+    }
+
+    @Test
+    void keepsAtMostMaxInFlightRequestsOutstanding() throws Exception {
+        NanoleafShapesAsync device = new NanoleafShapesAsync(new NanoleafShapes("127.0.0.1", TOKEN, null, null), 2);
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            writes.add(device.setBrightnessAsync(i * 10));
+        }
+        CompletableFuture.allOf(writes.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+        assertEquals(8, requests.size());
+        assertEquals(2, maxRunning.get());
+    }
+
+    @Test
+    void failsOnAnErrorStatus() {
+        status = 500;
+        NanoleafShapesAsync device = new NanoleafShapesAsync(new NanoleafShapes("127.0.0.1", TOKEN, null, null));
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> device.setPowerAsync(false).get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, e.getCause());
+    }
+}